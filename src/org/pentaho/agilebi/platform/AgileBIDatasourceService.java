@@ -18,32 +18,75 @@
 package org.pentaho.agilebi.platform;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.PrintWriter;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.logging.Logger;
 
 import javax.sql.DataSource;
 
-import org.pentaho.di.core.database.Database;
 import org.pentaho.di.core.database.DatabaseMeta;
-import org.pentaho.di.core.exception.KettleException;
-import org.pentaho.metadata.model.Domain;
-import org.pentaho.metadata.model.SqlPhysicalModel;
-import org.pentaho.metadata.util.ThinModelConverter;
-import org.pentaho.metadata.util.XmiParser;
 import org.pentaho.platform.api.data.DBDatasourceServiceException;
-import org.pentaho.platform.api.data.IDBDatasourceService;
 
-public class AgileBIDatasourceService implements IDBDatasourceService {
+public class AgileBIDatasourceService implements ICancellableDatasourceService {
+
+  private static final String METRICS_TYPE = "AgileBIDataSourcePool"; //$NON-NLS-1$
+
+  private DataSourcePoolConfig poolConfig = new DataSourcePoolConfig();
+
+  private final Map<String, DatabaseMetaConnectionPool> pools = new HashMap<String, DatabaseMetaConnectionPool>();
+
+  /** state of the XMI each pool was created from, guarded by pools */
+  private final Map<String, XmiFileStamp> poolStamps = new HashMap<String, XmiFileStamp>();
+
+  public DataSourcePoolConfig getPoolConfig() {
+    return poolConfig;
+  }
+
+  /**
+   * Sets the sizing of the connection pools created from now on.
+   */
+  public void setPoolConfig(DataSourcePoolConfig poolConfig) {
+    this.poolConfig = poolConfig;
+  }
 
   public void clearCache() {
-    // TODO impl cache
+    synchronized (pools) {
+      for (Map.Entry<String, DatabaseMetaConnectionPool> entry : pools.entrySet()) {
+        closePool(entry.getKey(), entry.getValue());
+      }
+      pools.clear();
+      poolStamps.clear();
+    }
+    DatabaseMetaCache.getInstance().clear();
+  }
+
+  public int cancelRunningStatements() {
+    int cancelled = 0;
+    synchronized (pools) {
+      for (DatabaseMetaConnectionPool pool : pools.values()) {
+        cancelled += pool.cancelRunningStatements();
+      }
+    }
+    return cancelled;
   }
 
   public void clearDataSource(String dsName) {
-    // TODO impl cache
+    synchronized (pools) {
+      DatabaseMetaConnectionPool pool = pools.remove(dsName);
+      poolStamps.remove(dsName);
+      if (pool != null) {
+        closePool(dsName, pool);
+      }
+    }
+    DatabaseMetaCache.getInstance().remove(dsName);
+  }
+
+  private void closePool(String dsName, DatabaseMetaConnectionPool pool) {
+    AgileBiMetrics.getInstance().unregister(METRICS_TYPE, dsName);
+    pool.close();
   }
 
   public String getDSBoundName(String dsName) throws DBDatasourceServiceException {
@@ -55,44 +98,49 @@ public class AgileBIDatasourceService implements IDBDatasourceService {
   }
 
   public DataSource getDataSource(String dsName) throws DBDatasourceServiceException {
-    Domain domain = null;
-    try {
-      XmiParser parser = new XmiParser();
-      FileInputStream fis = new FileInputStream(new File(dsName));
-      domain = parser.parseXmi(fis);
-    } catch (Exception e) {
-      throw new DBDatasourceServiceException(e);
+    XmiFileStamp stamp = new XmiFileStamp(new File(dsName));
+    synchronized (pools) {
+      DatabaseMetaConnectionPool pool = pools.get(dsName);
+      if (pool != null && stamp.equals(poolStamps.get(dsName))) {
+        return new DatabaseMetaDataSource(pool);
+      }
     }
 
-    if (domain.getPhysicalModels().size() == 0 || 
-        !(domain.getPhysicalModels().get(0) instanceof SqlPhysicalModel)) {
-      throw new DBDatasourceServiceException("No SQL Physical Model Available");
-      
+    // read the model without holding up the other datasources
+    DatabaseMeta databaseMeta = DatabaseMetaCache.getInstance().getDatabaseMeta(dsName);
+    DatabaseMetaConnectionPool created = new DatabaseMetaConnectionPool(new DatabaseMetaConnectionFactory(databaseMeta),
+        poolConfig);
+    DatabaseMetaConnectionPool pool;
+    synchronized (pools) {
+      pool = pools.get(dsName);
+      if (pool != null && stamp.equals(poolStamps.get(dsName))) {
+        // another thread created it meanwhile
+        created.close();
+        return new DatabaseMetaDataSource(pool);
+      }
+      if (pool != null) {
+        // the model changed since the pool was created
+        closePool(dsName, pool);
+      }
+      pool = created;
+      pools.put(dsName, pool);
+      poolStamps.put(dsName, stamp);
+      AgileBiMetrics.getInstance().register(METRICS_TYPE, dsName, pool);
+      pool.warmUpAsync(poolConfig.getInitialSize());
     }
-    
-    SqlPhysicalModel model = (SqlPhysicalModel)domain.getPhysicalModels().get(0);
-    
-    DatabaseMeta databaseMeta = ThinModelConverter.convertToLegacy(model.getId(), model.getDatasource());
-    return new DatabaseMetaDataSource(databaseMeta);
+    return new DatabaseMetaDataSource(pool);
   }
 
   class DatabaseMetaDataSource implements DataSource {
 
-    DatabaseMeta databaseMeta;
+    DatabaseMetaConnectionPool pool;
     
-    public DatabaseMetaDataSource(DatabaseMeta databaseMeta) {
-      this.databaseMeta = databaseMeta;
+    public DatabaseMetaDataSource(DatabaseMetaConnectionPool pool) {
+      this.pool = pool;
     }
     
     public Connection getConnection() throws SQLException {
-      Database database = new Database(databaseMeta);
-      try {
-        database.connect();
-      } catch (KettleException e) {
-        e.printStackTrace();
-        throw new SQLException(e.getMessage());
-      }
-      return database.getConnection();
+      return pool.getConnection();
     }
 
     public Connection getConnection(String username, String password) throws SQLException {
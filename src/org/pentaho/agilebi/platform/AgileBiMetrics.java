@@ -0,0 +1,138 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.platform;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Array;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.pentaho.di.core.logging.LogChannel;
+import org.pentaho.di.core.logging.LogChannelInterface;
+
+/**
+ * Registry of the embedded platform's metric sources (connection pools, caches, ...). Every source is a standard
+ * MBean registered with the platform MBean server under the org.pentaho.agilebi domain, and the same attributes are
+ * served as JSON by the {@link MetricsHandler}.
+ */
+public class AgileBiMetrics {
+
+  public static final String DOMAIN = "org.pentaho.agilebi"; //$NON-NLS-1$
+
+  private static LogChannelInterface log = new LogChannel(AgileBiMetrics.class.toString());
+
+  private static final AgileBiMetrics instance = new AgileBiMetrics();
+
+  private final Map<String, ObjectName> sources = new ConcurrentSkipListMap<String, ObjectName>();
+
+  private final MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+
+  private AgileBiMetrics() {
+  }
+
+  public static AgileBiMetrics getInstance() {
+    return instance;
+  }
+
+  /**
+   * Registers a metric source, replacing any source previously registered under the same type and name.
+   *
+   * @param type kind of source, e.g. DataSourcePool
+   * @param name name of the source within its type
+   * @param mbean a standard MBean
+   */
+  public void register(String type, String name, Object mbean) {
+    try {
+      ObjectName objectName = getObjectName(type, name);
+      if (mbeanServer.isRegistered(objectName)) {
+        mbeanServer.unregisterMBean(objectName);
+      }
+      mbeanServer.registerMBean(mbean, objectName);
+      sources.put(getKey(type, name), objectName);
+    } catch (Exception e) {
+      log.logError("Could not register metrics for " + type + " " + name, e);
+    }
+  }
+
+  public void unregister(String type, String name) {
+    ObjectName objectName = sources.remove(getKey(type, name));
+    if (objectName == null) {
+      return;
+    }
+    try {
+      mbeanServer.unregisterMBean(objectName);
+    } catch (Exception e) {
+      // already gone
+    }
+  }
+
+  /**
+   * @return the attributes of all registered sources, grouped by type then name
+   */
+  public JSONObject toJSON() throws JSONException {
+    JSONObject json = new JSONObject();
+    for (ObjectName objectName : sources.values()) {
+      String type = objectName.getKeyProperty("type"); //$NON-NLS-1$
+      JSONObject group = json.optJSONObject(type);
+      if (group == null) {
+        group = new JSONObject();
+        json.put(type, group);
+      }
+      group.put(ObjectName.unquote(objectName.getKeyProperty("name")), getAttributes(objectName)); //$NON-NLS-1$
+    }
+    return json;
+  }
+
+  private JSONObject getAttributes(ObjectName objectName) throws JSONException {
+    JSONObject attributes = new JSONObject();
+    try {
+      for (MBeanAttributeInfo info : mbeanServer.getMBeanInfo(objectName).getAttributes()) {
+        Object value = mbeanServer.getAttribute(objectName, info.getName());
+        if (value != null && value.getClass().isArray()) {
+          JSONArray array = new JSONArray();
+          for (int i = 0; i < Array.getLength(value); i++) {
+            array.put(Array.get(value, i));
+          }
+          value = array;
+        }
+        attributes.put(info.getName(), value);
+      }
+    } catch (JSONException e) {
+      throw e;
+    } catch (Exception e) {
+      // unregistered while reading it
+    }
+    return attributes;
+  }
+
+  private String getKey(String type, String name) {
+    return type + '/' + name;
+  }
+
+  private ObjectName getObjectName(String type, String name) throws Exception {
+    return new ObjectName(DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name)); //$NON-NLS-1$ //$NON-NLS-2$
+  }
+
+}
@@ -0,0 +1,152 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.platform;
+
+import org.apache.commons.pool.impl.GenericObjectPool;
+
+/**
+ * Sizing and validation settings for the per-datasource connection pools of the embedded platform's datasource
+ * services. Set from pentahoObjects.spring.xml.
+ */
+public class DataSourcePoolConfig {
+
+  private int maxActive = 8;
+
+  private int maxIdle = 8;
+
+  private int minIdle = 0;
+
+  private int initialSize = 0;
+
+  private long maxWait = 30000;
+
+  private String validationQuery = null;
+
+  private long timeBetweenEvictionRunsMillis = 60000;
+
+  private long minEvictableIdleTimeMillis = 300000;
+
+  public DataSourcePoolConfig() {
+  }
+
+  /**
+   * @return the commons-pool configuration matching these settings
+   */
+  public GenericObjectPool.Config toPoolConfig() {
+    GenericObjectPool.Config config = new GenericObjectPool.Config();
+    config.maxActive = maxActive;
+    config.maxIdle = maxIdle;
+    config.minIdle = minIdle;
+    config.maxWait = maxWait;
+    config.whenExhaustedAction = GenericObjectPool.WHEN_EXHAUSTED_BLOCK;
+    config.testOnBorrow = validationQuery != null;
+    config.testWhileIdle = validationQuery != null;
+    config.timeBetweenEvictionRunsMillis = timeBetweenEvictionRunsMillis;
+    config.minEvictableIdleTimeMillis = minEvictableIdleTimeMillis;
+    return config;
+  }
+
+  /**
+   * @return the maximum number of connections handed out at the same time
+   */
+  public int getMaxActive() {
+    return maxActive;
+  }
+
+  public void setMaxActive(int maxActive) {
+    this.maxActive = maxActive;
+  }
+
+  /**
+   * @return the maximum number of idle connections kept in the pool
+   */
+  public int getMaxIdle() {
+    return maxIdle;
+  }
+
+  public void setMaxIdle(int maxIdle) {
+    this.maxIdle = maxIdle;
+  }
+
+  /**
+   * @return the number of idle connections the evictor keeps available
+   */
+  public int getMinIdle() {
+    return minIdle;
+  }
+
+  public void setMinIdle(int minIdle) {
+    this.minIdle = minIdle;
+  }
+
+  /**
+   * @return the number of connections opened when the pool is created
+   */
+  public int getInitialSize() {
+    return initialSize;
+  }
+
+  public void setInitialSize(int initialSize) {
+    this.initialSize = initialSize;
+  }
+
+  /**
+   * @return how long, in milliseconds, a caller waits for a connection when the pool is exhausted
+   */
+  public long getMaxWait() {
+    return maxWait;
+  }
+
+  public void setMaxWait(long maxWait) {
+    this.maxWait = maxWait;
+  }
+
+  /**
+   * @return the query used to validate connections, or null to skip validation
+   */
+  public String getValidationQuery() {
+    return validationQuery;
+  }
+
+  public void setValidationQuery(String validationQuery) {
+    this.validationQuery = validationQuery;
+  }
+
+  /**
+   * @return how often, in milliseconds, idle connections are checked for eviction, non positive to disable
+   */
+  public long getTimeBetweenEvictionRunsMillis() {
+    return timeBetweenEvictionRunsMillis;
+  }
+
+  public void setTimeBetweenEvictionRunsMillis(long timeBetweenEvictionRunsMillis) {
+    this.timeBetweenEvictionRunsMillis = timeBetweenEvictionRunsMillis;
+  }
+
+  /**
+   * @return how long, in milliseconds, a connection may sit idle before it is evicted
+   */
+  public long getMinEvictableIdleTimeMillis() {
+    return minEvictableIdleTimeMillis;
+  }
+
+  public void setMinEvictableIdleTimeMillis(long minEvictableIdleTimeMillis) {
+    this.minEvictableIdleTimeMillis = minEvictableIdleTimeMillis;
+  }
+
+}
@@ -0,0 +1,172 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.platform;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.metadata.model.Domain;
+import org.pentaho.metadata.model.SqlPhysicalModel;
+import org.pentaho.metadata.util.ThinModelConverter;
+import org.pentaho.metadata.util.XmiParser;
+import org.pentaho.platform.api.data.DBDatasourceServiceException;
+
+/**
+ * Bounded cache of the {@link DatabaseMeta} read from the first SQL physical model of a metadata (XMI) file,
+ * shared by the datasource services so a connection request doesn't have to parse the whole XMI. Entries are
+ * keyed by the datasource name (the XMI path) and are dropped once the file's last modified time or length
+ * changes. The least recently used entry is evicted when the cache is full.
+ */
+public class DatabaseMetaCache implements DatabaseMetaCacheMBean {
+
+  public static final int DEFAULT_MAX_ENTRIES = 32;
+
+  private static final DatabaseMetaCache instance = new DatabaseMetaCache(DEFAULT_MAX_ENTRIES);
+
+  private final Map<String, CachedDatabaseMeta> cache;
+
+  private final AtomicLong hits = new AtomicLong();
+
+  private final AtomicLong misses = new AtomicLong();
+
+  public DatabaseMetaCache(final int maxEntries) {
+    cache = new LinkedHashMap<String, CachedDatabaseMeta>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, CachedDatabaseMeta> eldest) {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  public static DatabaseMetaCache getInstance() {
+    return instance;
+  }
+
+  /**
+   * Returns the database meta of the given datasource, parsing its XMI if it is not cached or has changed.
+   *
+   * @param dsName datasource name, the path of the XMI file
+   * @return the database meta of the first SQL physical model
+   * @throws DBDatasourceServiceException if the XMI can't be read or has no SQL physical model
+   */
+  public DatabaseMeta getDatabaseMeta(String dsName) throws DBDatasourceServiceException {
+    File xmiFile = new File(dsName);
+    XmiFileStamp stamp = new XmiFileStamp(xmiFile);
+
+    synchronized (cache) {
+      CachedDatabaseMeta cached = cache.get(dsName);
+      if (cached != null && stamp.equals(cached.stamp)) {
+        hits.incrementAndGet();
+        return cached.databaseMeta;
+      }
+    }
+    misses.incrementAndGet();
+
+    DatabaseMeta databaseMeta = readDatabaseMeta(xmiFile);
+    synchronized (cache) {
+      cache.put(dsName, new CachedDatabaseMeta(databaseMeta, stamp));
+    }
+    return databaseMeta;
+  }
+
+  /**
+   * Drops the cached database meta of the given datasource, if any.
+   *
+   * @param dsName datasource name
+   */
+  public void remove(String dsName) {
+    synchronized (cache) {
+      cache.remove(dsName);
+    }
+  }
+
+  /**
+   * Drops all cached database metas.
+   */
+  public void clear() {
+    synchronized (cache) {
+      cache.clear();
+    }
+  }
+
+  public int size() {
+    synchronized (cache) {
+      return cache.size();
+    }
+  }
+
+  public int getEntryCount() {
+    return size();
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public double getHitRate() {
+    long lookups = hits.get() + misses.get();
+    return lookups == 0 ? 0 : (double) hits.get() / lookups;
+  }
+
+  protected DatabaseMeta readDatabaseMeta(File xmiFile) throws DBDatasourceServiceException {
+    Domain domain = null;
+    try {
+      XmiParser parser = new XmiParser();
+      FileInputStream fis = new FileInputStream(xmiFile);
+      try {
+        domain = parser.parseXmi(fis);
+      } finally {
+        fis.close();
+      }
+    } catch (Exception e) {
+      throw new DBDatasourceServiceException(e);
+    }
+
+    if (domain.getPhysicalModels().size() == 0 ||
+        !(domain.getPhysicalModels().get(0) instanceof SqlPhysicalModel)) {
+      throw new DBDatasourceServiceException("No SQL Physical Model Available");
+    }
+
+    SqlPhysicalModel model = (SqlPhysicalModel) domain.getPhysicalModels().get(0);
+
+    return ThinModelConverter.convertToLegacy(model.getId(), model.getDatasource());
+  }
+
+  private static class CachedDatabaseMeta {
+
+    final DatabaseMeta databaseMeta;
+
+    final XmiFileStamp stamp;
+
+    CachedDatabaseMeta(DatabaseMeta databaseMeta, XmiFileStamp stamp) {
+      this.databaseMeta = databaseMeta;
+      this.stamp = stamp;
+    }
+  }
+
+}
@@ -0,0 +1,77 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.platform;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.dbcp.ConnectionFactory;
+import org.pentaho.di.core.database.Database;
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.logging.LogChannel;
+import org.pentaho.di.core.logging.LogChannelInterface;
+
+/**
+ * Opens physical connections for a connection pool through a Kettle {@link Database}.
+ */
+public class DatabaseMetaConnectionFactory implements ConnectionFactory {
+
+  private static LogChannelInterface log = new LogChannel(DatabaseMetaConnectionFactory.class.toString());
+
+  private final DatabaseMeta databaseMeta;
+
+  private final AtomicLong creationFailures = new AtomicLong();
+
+  public DatabaseMetaConnectionFactory(DatabaseMeta databaseMeta) {
+    this.databaseMeta = databaseMeta;
+  }
+
+  public DatabaseMeta getDatabaseMeta() {
+    return databaseMeta;
+  }
+
+  @Override
+  public Connection createConnection() throws SQLException {
+    Database database = new Database(databaseMeta);
+    try {
+      database.connect();
+    } catch (KettleException e) {
+      creationFailures.incrementAndGet();
+      log.logError("Could not connect to database " + databaseMeta.getName(), e); //$NON-NLS-1$
+      throw new SQLException(e.getMessage(), e);
+    }
+    connectionCreated();
+    return database.getConnection();
+  }
+
+  /**
+   * @return the number of connections that could not be opened
+   */
+  public long getCreationFailures() {
+    return creationFailures.get();
+  }
+
+  /**
+   * Called after each new physical connection has been opened.
+   */
+  protected void connectionCreated() {
+  }
+
+}
@@ -0,0 +1,291 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.platform;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.dbcp.PoolableConnectionFactory;
+import org.apache.commons.dbcp.PoolingDataSource;
+import org.apache.commons.pool.impl.GenericObjectPool;
+import org.pentaho.di.core.logging.LogChannel;
+import org.pentaho.di.core.logging.LogChannelInterface;
+
+/**
+ * A pool of connections to the database of one datasource, sized by a {@link DataSourcePoolConfig}. The statements
+ * created on borrowed connections are tracked until they are closed, so queries still running when the platform
+ * shuts down can be cancelled.
+ */
+public class DatabaseMetaConnectionPool implements DatabaseMetaConnectionPoolMBean {
+
+  private static LogChannelInterface log = new LogChannel(DatabaseMetaConnectionPool.class.toString());
+
+  private static final ExecutorService warmUpExecutor = Executors.newFixedThreadPool(2, new ThreadFactory() {
+    private final AtomicInteger count = new AtomicInteger();
+
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "agilebi-pool-warmup-" + count.incrementAndGet()); //$NON-NLS-1$
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+
+  private final DatabaseMetaConnectionFactory connectionFactory;
+
+  private final GenericObjectPool pool;
+
+  private final PoolingDataSource dataSource;
+
+  private final LatencyHistogram borrowWait = new LatencyHistogram();
+
+  private final AtomicLong validationFailures = new AtomicLong();
+
+  private volatile boolean closed;
+
+  // statements open on borrowed connections, used as a concurrent set
+  private final Map<Statement, Boolean> openStatements = new ConcurrentHashMap<Statement, Boolean>();
+
+  public DatabaseMetaConnectionPool(DatabaseMetaConnectionFactory connectionFactory, DataSourcePoolConfig config) {
+    this.connectionFactory = connectionFactory;
+    pool = new GenericObjectPool(null, config.toPoolConfig());
+    // registers itself as the factory of the pool
+    new PoolableConnectionFactory(connectionFactory, pool, null, config.getValidationQuery(), false, true) {
+      @Override
+      public boolean validateObject(Object obj) {
+        boolean valid = super.validateObject(obj);
+        if (!valid) {
+          validationFailures.incrementAndGet();
+        }
+        return valid;
+      }
+    };
+    dataSource = new PoolingDataSource(pool);
+  }
+
+  /**
+   * Opens connections until the pool holds the given number of idle connections.
+   *
+   * @param size number of idle connections wanted
+   * @throws Exception if a connection can't be opened
+   */
+  public void warmUp(int size) throws Exception {
+    for (int i = pool.getNumIdle(); i < size; i++) {
+      pool.addObject();
+    }
+  }
+
+  /**
+   * Opens connections in the background until the pool holds the given number of idle connections. Connections
+   * can be borrowed meanwhile, the pool opens one on demand if none is idle yet.
+   *
+   * @param size number of idle connections wanted
+   * @return the pending warm up
+   */
+  public Future<?> warmUpAsync(final int size) {
+    return warmUpExecutor.submit(new Runnable() {
+      public void run() {
+        try {
+          warmUp(size);
+        } catch (Exception e) {
+          log.logError("Could not open pooled connections", e);
+        }
+      }
+    });
+  }
+
+  /**
+   * Borrows a connection from the pool; closing it returns it to the pool.
+   */
+  public Connection getConnection() throws SQLException {
+    long start = System.currentTimeMillis();
+    try {
+      Connection connection = dataSource.getConnection();
+      return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Connection.class },
+          new StatementTrackingHandler(connection));
+    } finally {
+      borrowWait.record(System.currentTimeMillis() - start);
+    }
+  }
+
+  public DatabaseMetaConnectionFactory getConnectionFactory() {
+    return connectionFactory;
+  }
+
+  public int getNumActive() {
+    return pool.getNumActive();
+  }
+
+  public int getNumIdle() {
+    return pool.getNumIdle();
+  }
+
+  public long getCreationFailures() {
+    return connectionFactory.getCreationFailures();
+  }
+
+  public long getValidationFailures() {
+    return validationFailures.get();
+  }
+
+  public long getBorrowCount() {
+    return borrowWait.getCount();
+  }
+
+  public double getBorrowWaitMeanMillis() {
+    return borrowWait.getMean();
+  }
+
+  public long getBorrowWaitMaxMillis() {
+    return borrowWait.getMax();
+  }
+
+  public long getBorrowWaitMedianMillis() {
+    return borrowWait.getPercentile(50);
+  }
+
+  public long getBorrowWait95thPercentileMillis() {
+    return borrowWait.getPercentile(95);
+  }
+
+  public long getBorrowWait99thPercentileMillis() {
+    return borrowWait.getPercentile(99);
+  }
+
+  public long[] getBorrowWaitHistogram() {
+    return borrowWait.getBucketCounts();
+  }
+
+  public int getOpenStatements() {
+    return openStatements.size();
+  }
+
+  /**
+   * Cancels the statements currently open on borrowed connections, making queries that are still running fail.
+   *
+   * @return the number of statements cancelled
+   */
+  public int cancelRunningStatements() {
+    int cancelled = 0;
+    for (Statement statement : new ArrayList<Statement>(openStatements.keySet())) {
+      try {
+        statement.cancel();
+        cancelled++;
+      } catch (Exception e) {
+        // closed meanwhile, or the driver doesn't support cancelling
+      }
+    }
+    return cancelled;
+  }
+
+  /**
+   * Closes the idle connections, the pool stays usable.
+   */
+  public void clearIdle() {
+    pool.clear();
+  }
+
+  /**
+   * Closes the idle connections and stops handing out new ones, borrowed connections are closed when returned.
+   */
+  public void close() {
+    closed = true;
+    try {
+      pool.close();
+    } catch (Exception e) {
+      // not much we can do here
+    }
+  }
+
+  /**
+   * @return true once the pool has been closed
+   */
+  public boolean isClosed() {
+    return closed;
+  }
+
+  /**
+   * Keeps track of the statements created on a borrowed connection until they, or the connection, are closed.
+   */
+  private class StatementTrackingHandler implements InvocationHandler {
+
+    private final Connection connection;
+
+    private final List<Statement> statements = new ArrayList<Statement>();
+
+    StatementTrackingHandler(Connection connection) {
+      this.connection = connection;
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      String name = method.getName();
+      if ("close".equals(name)) { //$NON-NLS-1$
+        synchronized (statements) {
+          for (Statement statement : statements) {
+            openStatements.remove(statement);
+          }
+          statements.clear();
+        }
+      }
+      Object result;
+      try {
+        result = method.invoke(connection, args);
+      } catch (InvocationTargetException e) {
+        throw e.getTargetException();
+      }
+      if (result instanceof Statement) {
+        Statement statement = (Statement) result;
+        synchronized (statements) {
+          // forget the statements closed meanwhile so long lived connections don't accumulate them
+          for (int i = statements.size() - 1; i >= 0; i--) {
+            if (isClosed(statements.get(i))) {
+              openStatements.remove(statements.remove(i));
+            }
+          }
+          statements.add(statement);
+        }
+        openStatements.put(statement, Boolean.TRUE);
+      }
+      return result;
+    }
+
+    private boolean isClosed(Statement statement) {
+      try {
+        return statement.isClosed();
+      } catch (Throwable e) {
+        // a JDBC 3 driver, keep tracking it until the connection is closed
+        return false;
+      }
+    }
+  }
+
+}
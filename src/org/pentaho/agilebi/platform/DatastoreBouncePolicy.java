@@ -0,0 +1,134 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.platform;
+
+/**
+ * Decides when the Instaview datastore should be restarted ("bounced"). Set on the
+ * {@link InstaviewDatasourceService} from pentahoObjects.spring.xml.
+ */
+public abstract class DatastoreBouncePolicy {
+
+  /**
+   * @param bouncer the bouncer asking, gives access to the connection count and the time of the last bounce
+   * @return true if the datastore should be restarted now
+   */
+  public abstract boolean shouldBounce(DatastoreBouncer bouncer);
+
+  /**
+   * Never restarts the datastore.
+   */
+  public static class Never extends DatastoreBouncePolicy {
+
+    @Override
+    public boolean shouldBounce(DatastoreBouncer bouncer) {
+      return false;
+    }
+  }
+
+  /**
+   * Restarts the datastore after a number of connections have been handed out.
+   */
+  public static class ByConnectionCount extends DatastoreBouncePolicy {
+
+    private long threshold = 1000;
+
+    public long getThreshold() {
+      return threshold;
+    }
+
+    public void setThreshold(long threshold) {
+      this.threshold = threshold;
+    }
+
+    @Override
+    public boolean shouldBounce(DatastoreBouncer bouncer) {
+      return bouncer.getConnectionCount() >= threshold;
+    }
+  }
+
+  /**
+   * Restarts the datastore once a given time has elapsed since it was last restarted.
+   */
+  public static class ByElapsedTime extends DatastoreBouncePolicy {
+
+    private long intervalMillis = 3600000;
+
+    public long getIntervalMillis() {
+      return intervalMillis;
+    }
+
+    public void setIntervalMillis(long intervalMillis) {
+      this.intervalMillis = intervalMillis;
+    }
+
+    @Override
+    public boolean shouldBounce(DatastoreBouncer bouncer) {
+      return System.currentTimeMillis() - bouncer.getLastBounceTime() >= intervalMillis;
+    }
+  }
+
+  /**
+   * Restarts the datastore once the memory it reports using goes over a limit. The usage is sampled at most once per
+   * sample interval rather than on every connection request. Has no effect if the registered Instaview helper can't
+   * report its memory usage.
+   */
+  public static class ByDatastoreMemory extends DatastoreBouncePolicy {
+
+    private long maxBytes = 512L * 1024L * 1024L;
+
+    private long sampleIntervalMillis = 10000;
+
+    private long lastSampleTime;
+
+    private long lastUsage = -1;
+
+    public long getMaxBytes() {
+      return maxBytes;
+    }
+
+    public void setMaxBytes(long maxBytes) {
+      this.maxBytes = maxBytes;
+    }
+
+    public long getSampleIntervalMillis() {
+      return sampleIntervalMillis;
+    }
+
+    public void setSampleIntervalMillis(long sampleIntervalMillis) {
+      this.sampleIntervalMillis = sampleIntervalMillis;
+    }
+
+    @Override
+    public boolean shouldBounce(DatastoreBouncer bouncer) {
+      return sampleUsage(bouncer) >= maxBytes;
+    }
+
+    private synchronized long sampleUsage(DatastoreBouncer bouncer) {
+      long now = System.currentTimeMillis();
+      // a bounce since the last sample makes it stale
+      if (now - lastSampleTime >= sampleIntervalMillis || lastSampleTime < bouncer.getLastBounceTime()) {
+        IInstaviewHelper helper = InstaviewHelper.getInstaviewHelper();
+        lastUsage = helper instanceof IInstaviewDatastoreHelper
+            ? ((IInstaviewDatastoreHelper) helper).getDatastoreMemoryUsage() : -1;
+        lastSampleTime = now;
+      }
+      return lastUsage;
+    }
+  }
+
+}
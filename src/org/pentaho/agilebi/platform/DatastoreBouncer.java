@@ -0,0 +1,252 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.platform;
+
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.pentaho.di.core.logging.LogChannel;
+import org.pentaho.di.core.logging.LogChannelInterface;
+
+/**
+ * Counts the connections the {@link InstaviewDatasourceService} hands out to the Instaview datastore and restarts the
+ * datastore when its {@link DatastoreBouncePolicy} says so. Connections to other databases don't go through the
+ * bouncer. A bounce only restarts the datastore once no connection is borrowed: the bouncing thread waits for the
+ * connections in flight to be returned (up to the drain timeout), discards the idle pooled connections and restarts the
+ * datastore. New borrowers aren't parked meanwhile, they get a {@link SQLTransientConnectionException} straight away
+ * and can retry. If connections are still out when the drain timeout expires, the bounce is skipped and retried on a
+ * request made after another drain timeout. Threads that already hold a connection are never turned away, and never
+ * bounce, so a thread can't wait for its own connection to be returned.
+ */
+public class DatastoreBouncer implements DatastoreBouncerMBean {
+
+  private static LogChannelInterface log = new LogChannel(DatastoreBouncer.class.toString());
+
+  /**
+   * Gives the bouncer access to the connections of the datastore.
+   */
+  public interface ConnectionTracker {
+
+    /**
+     * Discards the idle connections, they won't survive the restart.
+     */
+    void closeIdleConnections();
+  }
+
+  private final AtomicLong connectionCount = new AtomicLong();
+
+  private final AtomicLong lastBounceTime = new AtomicLong(System.currentTimeMillis());
+
+  private final AtomicInteger bounceCount = new AtomicInteger();
+
+  private final AtomicInteger skippedBounces = new AtomicInteger();
+
+  private final AtomicLong rejectedRequests = new AtomicLong();
+
+  private final Object gate = new Object();
+
+  /** guarded by gate */
+  private boolean bouncing;
+
+  /** the threads holding borrowed connections and how many each holds, guarded by gate */
+  private final Map<Thread, Integer> borrowers = new HashMap<Thread, Integer>();
+
+  /** guarded by gate */
+  private int borrowed;
+
+  /** no bounce is attempted before this time after a skipped one, guarded by gate */
+  private long retryTime;
+
+  private volatile DatastoreBouncePolicy policy = new DatastoreBouncePolicy.Never();
+
+  private volatile long drainTimeout = 30000;
+
+  /**
+   * Called before a connection to the datastore is handed out. Bounces the datastore if the policy asks for it and
+   * counts the connection as borrowed, until {@link #connectionReturned(Thread)}.
+   *
+   * @param tracker the connections of the datastore
+   * @throws SQLException if the datastore is being bounced, the request can be retried once it is back
+   */
+  public void connectionRequested(ConnectionTracker tracker) throws SQLException {
+    Thread borrower = Thread.currentThread();
+    boolean bounce;
+    synchronized (gate) {
+      // a thread holding a connection goes ahead, the bounce waits for it or gives up
+      if (bouncing && !borrowers.containsKey(borrower)) {
+        rejectedRequests.incrementAndGet();
+        throw new SQLTransientConnectionException("The datastore is restarting"); //$NON-NLS-1$
+      }
+      connectionCount.incrementAndGet();
+      bounce = !bouncing && !borrowers.containsKey(borrower) && System.currentTimeMillis() >= retryTime
+          && policy.shouldBounce(this);
+      bouncing = bounce;
+    }
+    try {
+      if (bounce) {
+        bounce(tracker);
+      }
+    } finally {
+      synchronized (gate) {
+        if (bounce) {
+          bouncing = false;
+        }
+        Integer held = borrowers.get(borrower);
+        borrowers.put(borrower, held == null ? 1 : held + 1);
+        borrowed++;
+      }
+    }
+  }
+
+  /**
+   * Called once a connection handed out after {@link #connectionRequested(ConnectionTracker)} is returned, or
+   * couldn't be opened.
+   *
+   * @param borrower the thread that requested the connection
+   */
+  public void connectionReturned(Thread borrower) {
+    synchronized (gate) {
+      Integer held = borrowers.get(borrower);
+      if (held == null) {
+        return;
+      }
+      if (held > 1) {
+        borrowers.put(borrower, held - 1);
+      } else {
+        borrowers.remove(borrower);
+      }
+      borrowed--;
+      if (bouncing) {
+        // only the bouncing thread waits on the gate
+        gate.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Waits for the borrowed connections to be returned and restarts the datastore, or skips the restart if they
+   * aren't returned within the drain timeout.
+   */
+  private void bounce(ConnectionTracker tracker) {
+    try {
+      synchronized (gate) {
+        long deadline = System.currentTimeMillis() + drainTimeout;
+        long remaining = drainTimeout;
+        while (borrowed > 0 && remaining > 0) {
+          gate.wait(remaining);
+          remaining = deadline - System.currentTimeMillis();
+        }
+        if (borrowed > 0) {
+          skippedBounces.incrementAndGet();
+          retryTime = System.currentTimeMillis() + drainTimeout;
+          log.logBasic("Not restarting the datastore, " + borrowed + " connections are still in use"); //$NON-NLS-1$ //$NON-NLS-2$
+          return;
+        }
+      }
+      tracker.closeIdleConnections();
+
+      IInstaviewHelper helper = InstaviewHelper.getInstaviewHelper();
+      if (helper instanceof IInstaviewDatastoreHelper) {
+        ((IInstaviewDatastoreHelper) helper).restartDatastore();
+        bounceCount.incrementAndGet();
+      }
+      connectionCount.set(0);
+      lastBounceTime.set(System.currentTimeMillis());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (Exception e) {
+      log.logError("Could not restart the datastore", e);
+      connectionCount.set(0);
+      lastBounceTime.set(System.currentTimeMillis());
+    }
+  }
+
+  /**
+   * @return the number of connections handed out since the last bounce
+   */
+  public long getConnectionCount() {
+    return connectionCount.get();
+  }
+
+  /**
+   * @return the time of the last bounce, or of the creation of the bouncer
+   */
+  public long getLastBounceTime() {
+    return lastBounceTime.get();
+  }
+
+  /**
+   * @return the number of times the datastore has been restarted
+   */
+  public int getBounceCount() {
+    return bounceCount.get();
+  }
+
+  /**
+   * @return the number of bounces skipped because connections were still borrowed after the drain timeout
+   */
+  public int getSkippedBounceCount() {
+    return skippedBounces.get();
+  }
+
+  /**
+   * @return the number of connection requests turned away because the datastore was being bounced
+   */
+  public long getRejectedRequestCount() {
+    return rejectedRequests.get();
+  }
+
+  /**
+   * @return the number of connections currently borrowed
+   */
+  public int getBorrowedConnections() {
+    synchronized (gate) {
+      return borrowed;
+    }
+  }
+
+  public boolean isBouncing() {
+    synchronized (gate) {
+      return bouncing;
+    }
+  }
+
+  public DatastoreBouncePolicy getPolicy() {
+    return policy;
+  }
+
+  public void setPolicy(DatastoreBouncePolicy policy) {
+    this.policy = policy;
+  }
+
+  /**
+   * @return how long, in milliseconds, a bounce waits for in-flight connections to be returned
+   */
+  public long getDrainTimeout() {
+    return drainTimeout;
+  }
+
+  public void setDrainTimeout(long drainTimeout) {
+    this.drainTimeout = drainTimeout;
+  }
+
+}
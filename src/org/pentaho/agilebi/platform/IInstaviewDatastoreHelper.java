@@ -0,0 +1,42 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.platform;
+
+import org.pentaho.di.core.database.DatabaseMeta;
+
+/**
+ * An {@link IInstaviewHelper} that can also report on and restart the Instaview datastore.
+ */
+public interface IInstaviewDatastoreHelper extends IInstaviewHelper {
+
+	/**
+	 * Restarts the datastore, called once all in-flight connections have been returned.
+	 */
+	public void restartDatastore() throws Exception;
+
+	/**
+	 * @return the memory used by the datastore in bytes, or a negative value if unknown
+	 */
+	public long getDatastoreMemoryUsage();
+
+	/**
+	 * @return whether connections made from the given database meta go to the datastore, only those are held off by a restart
+	 */
+	public boolean isDatastore(DatabaseMeta databaseMeta);
+
+}
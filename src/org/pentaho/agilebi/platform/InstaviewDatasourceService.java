@@ -18,56 +18,133 @@
 package org.pentaho.agilebi.platform;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 import javax.sql.DataSource;
 
-import org.apache.commons.dbcp.ConnectionFactory;
-import org.apache.commons.dbcp.PoolableConnectionFactory;
-import org.apache.commons.dbcp.PoolingDriver;
-import org.apache.commons.pool.KeyedObjectPoolFactory;
-import org.apache.commons.pool.impl.GenericKeyedObjectPoolFactory;
-import org.apache.commons.pool.impl.GenericObjectPool;
-import org.pentaho.di.core.database.Database;
 import org.pentaho.di.core.database.DatabaseMeta;
-import org.pentaho.di.core.exception.KettleException;
-import org.pentaho.metadata.model.Domain;
-import org.pentaho.metadata.model.SqlPhysicalModel;
-import org.pentaho.metadata.util.ThinModelConverter;
-import org.pentaho.metadata.util.XmiParser;
 import org.pentaho.platform.api.data.DBDatasourceServiceException;
-import org.pentaho.platform.api.data.IDBDatasourceService;
 
-public class InstaviewDatasourceService implements IDBDatasourceService {
+public class InstaviewDatasourceService implements ICancellableDatasourceService {
 
-	private GenericObjectPool gPool = new GenericObjectPool();
+  private static final String METRICS_TYPE = "InstaviewDataSourcePool"; //$NON-NLS-1$
 
-	private KeyedObjectPoolFactory kopf =new GenericKeyedObjectPoolFactory(null, 8);
+  private DataSourcePoolConfig poolConfig = createDefaultPoolConfig();
 
-	private Set<String> knownPools = new HashSet<String>();
-	
-	private int connectionCount = 0;
-	
-	private Map<String,DatabaseMeta> databaseMetaMap = new HashMap<String,DatabaseMeta>();
+  private final Map<String, DatabaseMetaConnectionPool> pools = new HashMap<String, DatabaseMetaConnectionPool>();
+
+  /** state of the XMI each pool was created from, guarded by pools */
+  private final Map<String, XmiFileStamp> poolStamps = new HashMap<String, XmiFileStamp>();
+
+  private final AtomicLong connectionsCreated = new AtomicLong();
+
+  private final DatastoreBouncer bouncer = new DatastoreBouncer();
+
+  private final DatastoreBouncer.ConnectionTracker connectionTracker = new DatastoreBouncer.ConnectionTracker() {
+
+    public void closeIdleConnections() {
+      synchronized (pools) {
+        for (DatabaseMetaConnectionPool pool : pools.values()) {
+          if (((InstaviewConnectionFactory) pool.getConnectionFactory()).isDatastore()) {
+            pool.clearIdle();
+          }
+        }
+      }
+    }
+  };
 	
 	public InstaviewDatasourceService() {
-		
+		AgileBiMetrics.getInstance().register("InstaviewDatastore", "bouncer", bouncer); //$NON-NLS-1$ //$NON-NLS-2$
 	}
+
+  private static DataSourcePoolConfig createDefaultPoolConfig() {
+    DataSourcePoolConfig config = new DataSourcePoolConfig();
+    config.setInitialSize(5);
+    config.setValidationQuery("select 1"); //$NON-NLS-1$
+    return config;
+  }
+
+  public DataSourcePoolConfig getPoolConfig() {
+    return poolConfig;
+  }
+
+  /**
+   * Sets the sizing of the connection pools created from now on, each datasource gets its own pool.
+   */
+  public void setPoolConfig(DataSourcePoolConfig poolConfig) {
+    this.poolConfig = poolConfig;
+  }
 	
+  /**
+   * Sets when the Instaview datastore gets restarted, never by default.
+   */
+  public void setBouncePolicy(DatastoreBouncePolicy policy) {
+    bouncer.setPolicy(policy);
+  }
+
+  /**
+   * Sets how long, in milliseconds, a datastore restart waits for in-flight connections to be returned.
+   */
+  public void setBounceDrainTimeout(long drainTimeout) {
+    bouncer.setDrainTimeout(drainTimeout);
+  }
+
+  public DatastoreBouncer getBouncer() {
+    return bouncer;
+  }
+
+  /**
+   * @return the number of physical connections opened to the datastore
+   */
+  public long getConnectionsCreated() {
+    return connectionsCreated.get();
+  }
+
   public void clearCache() {
-    // TODO impl cache
+    synchronized (pools) {
+      for (Map.Entry<String, DatabaseMetaConnectionPool> entry : pools.entrySet()) {
+        closePool(entry.getKey(), entry.getValue());
+      }
+      pools.clear();
+      poolStamps.clear();
+    }
+    DatabaseMetaCache.getInstance().clear();
+  }
+
+  public int cancelRunningStatements() {
+    int cancelled = 0;
+    synchronized (pools) {
+      for (DatabaseMetaConnectionPool pool : pools.values()) {
+        cancelled += pool.cancelRunningStatements();
+      }
+    }
+    return cancelled;
   }
 
   public void clearDataSource(String dsName) {
-    // TODO impl cache
+    synchronized (pools) {
+      DatabaseMetaConnectionPool pool = pools.remove(dsName);
+      poolStamps.remove(dsName);
+      if (pool != null) {
+        closePool(dsName, pool);
+      }
+    }
+    DatabaseMetaCache.getInstance().remove(dsName);
+  }
+
+  private void closePool(String dsName, DatabaseMetaConnectionPool pool) {
+    AgileBiMetrics.getInstance().unregister(METRICS_TYPE, dsName);
+    pool.close();
   }
 
   public String getDSBoundName(String dsName) throws DBDatasourceServiceException {
@@ -79,149 +156,115 @@ public class InstaviewDatasourceService implements IDBDatasourceService {
   }
 
   public DataSource getDataSource(String dsName) throws DBDatasourceServiceException {
+    XmiFileStamp stamp = new XmiFileStamp(new File(dsName));
+    synchronized (pools) {
+      DatabaseMetaConnectionPool pool = pools.get(dsName);
+      if (pool != null && stamp.equals(poolStamps.get(dsName))) {
+        return new DatabaseMetaDataSource(pool);
+      }
+    }
 
-	  DatabaseMeta databaseMeta = databaseMetaMap.get(dsName);
-	  
-	  if( knownPools.contains(dsName)) {
-		  try {
-				DatabaseMetaDataSource dataSource = new DatabaseMetaDataSource(dsName);
-				return dataSource;
-		} catch (Exception e) {
-			throw new DBDatasourceServiceException(e);
-		}
-	  }
+    // nothing in the pool so create a new pool, without holding up the other datasources while the model is read
+    DatabaseMeta databaseMeta = DatabaseMetaCache.getInstance().getDatabaseMeta(dsName);
+    DatabaseMetaConnectionPool created = new DatabaseMetaConnectionPool(new InstaviewConnectionFactory(databaseMeta),
+        poolConfig);
+    DatabaseMetaConnectionPool pool;
+    synchronized (pools) {
+      pool = pools.get(dsName);
+      if (pool != null && stamp.equals(poolStamps.get(dsName))) {
+        // another thread created it meanwhile
+        created.close();
+        return new DatabaseMetaDataSource(pool);
+      }
+      if (pool != null) {
+        // the model changed since the pool was created
+        closePool(dsName, pool);
+      }
+      pool = created;
+      pools.put(dsName, pool);
+      poolStamps.put(dsName, stamp);
+      AgileBiMetrics.getInstance().register(METRICS_TYPE, dsName, pool);
+      // open the initial connections in the background, the first query opens its own if none is ready yet
+      pool.warmUpAsync(poolConfig.getInitialSize());
+    }
+    return new DatabaseMetaDataSource(pool);
+  }
+
+  class InstaviewConnectionFactory extends DatabaseMetaConnectionFactory {
+
+    private final boolean datastore;
 
-    // nothing in the pool so create a new pool
-    Domain domain = null;
-    try {
-      XmiParser parser = new XmiParser();
-      FileInputStream fis = new FileInputStream(new File(dsName));
-      domain = parser.parseXmi(fis);
-    } catch (Exception e) {
-      throw new DBDatasourceServiceException(e);
+    public InstaviewConnectionFactory(DatabaseMeta databaseMeta) {
+      super(databaseMeta);
+      IInstaviewHelper instaviewHelper = InstaviewHelper.getInstaviewHelper();
+      datastore = instaviewHelper instanceof IInstaviewDatastoreHelper
+          && ((IInstaviewDatastoreHelper) instaviewHelper).isDatastore(databaseMeta);
     }
 
-    if (domain.getPhysicalModels().size() == 0 || 
-        !(domain.getPhysicalModels().get(0) instanceof SqlPhysicalModel)) {
-      throw new DBDatasourceServiceException("No SQL Physical Model Available");
-      
+    /**
+     * @return whether the connections go to the Instaview datastore, and so are counted by the bouncer
+     */
+    public boolean isDatastore() {
+      return datastore;
     }
-    
-    SqlPhysicalModel model = (SqlPhysicalModel)domain.getPhysicalModels().get(0);
-    
-    databaseMeta = ThinModelConverter.convertToLegacy(model.getId(), model.getDatasource());
-	
-    ConnectionFactory cf = new DatabaseMetaConnectionFactory(databaseMeta);
-
-    GenericObjectPool.Config config = new GenericObjectPool.Config();
-    config.testOnBorrow = true;
-    gPool.setConfig(config);
-
-	  PoolableConnectionFactory pcf =  new PoolableConnectionFactory(cf,
-            gPool,
-            kopf,
-            "select 1",
-            false,
-            true);
-	
-	try {
-//		for(int i = 0; i < 5; i++) {
-//		      gPool.addObject();
-//		    }
-
-		    // PoolingDataSource pds = new PoolingDataSource(gPool);
-		    PoolingDriver pd = new PoolingDriver();
-		    pd.registerPool(dsName, gPool);
-
-		    for(int i = 0; i < 5; i++) {
-		      gPool.addObject();
-		    }
-		
-	} catch (Exception e) {
-		throw new DBDatasourceServiceException(e);
-	}
-    
-    Database database = new Database(databaseMeta);
-    try {
-      database.connect();
-    } catch (Exception e) {
-      throw new DBDatasourceServiceException(e);
+
+    @Override
+    protected void connectionCreated() {
+      connectionsCreated.incrementAndGet();
+      IInstaviewHelper instaviewHelper = InstaviewHelper.getInstaviewHelper();
+      if( instaviewHelper != null ) {
+        instaviewHelper.connectionMade();
+      }
     }
-    Connection connection = database.getConnection();
-	
-	knownPools.add(dsName);
-	databaseMetaMap.put(dsName, databaseMeta);
-	
-    return new DatabaseMetaDataSource(dsName);
-  }
 
-  class DatabaseMetaConnectionFactory implements ConnectionFactory {
-
-	    DatabaseMeta databaseMeta;
-
-		public DatabaseMetaConnectionFactory(DatabaseMeta databaseMeta) {
-			this.databaseMeta = databaseMeta;
-		}
-		    
-
-		@Override
-		public Connection createConnection() throws SQLException {
-		      Database database = new Database(databaseMeta);
-		      try {
-		        database.connect();
-		        connectionCount++;
-    			IInstaviewHelper instaviewHelper = InstaviewHelper.getInstaviewHelper();
-    			if( instaviewHelper != null ) {
-    				instaviewHelper.connectionMade();
-    			}
-  		      Connection connection = database.getConnection();
-
-		      return connection;
-		        
-		      } catch (KettleException e) {
-		        e.printStackTrace();
-		        throw new SQLException(e.getMessage());
-		      }
-//		      WrappedConnection wrapper = new WrappedConnection(connection);
-		}
-	  
   }  
   
   class DatabaseMetaDataSource implements DataSource {
 
-	    DatabaseMeta databaseMeta;
-	    
-	    Connection connection;
-	    
-	    String dsName;
+	    DatabaseMetaConnectionPool pool;
 	    
-	    public DatabaseMetaDataSource(String dsName) {
-	      this.dsName = dsName;
+	    public DatabaseMetaDataSource(DatabaseMetaConnectionPool pool) {
+	      this.pool = pool;
 	    }
 	    
 	    public Connection getConnection() throws SQLException {
-			Connection connection = java.sql.DriverManager.getConnection("jdbc:apache:commons:dbcp:"+dsName); //$NON-NLS-1$
-/*
-			try {
-	        connectionCount++;
-	        if( connectionCount == BOUNCE_THREASHOLD ) {
-	    		try {
-	    			IInstaviewHelper instaviewHelper = InstaviewHelper.getInstaviewHelper();
-	    			if( instaviewHelper != null ) {
-	    				instaviewHelper.restartDatastore();
-			        	connectionCount = 0;
-	    			}
-				} catch (Exception e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
-	        }
-	      } catch (Exception e) {
-	        e.printStackTrace();
-	        throw new SQLException(e.getMessage());
+	      if (!((InstaviewConnectionFactory) pool.getConnectionFactory()).isDatastore()) {
+	        // a bounce doesn't affect other databases
+	        return pool.getConnection();
 	      }
-	      */
-	      return connection;
+	      bouncer.connectionRequested(connectionTracker);
+	      final Thread borrower = Thread.currentThread();
+	      final Connection connection;
+	      try {
+	        connection = pool.getConnection();
+	      } catch (SQLException e) {
+	        bouncer.connectionReturned(borrower);
+	        throw e;
+	      } catch (RuntimeException e) {
+	        bouncer.connectionReturned(borrower);
+	        throw e;
+	      }
+	      // tells the bouncer when the connection is returned, wherever it is closed
+	      return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Connection.class },
+	          new InvocationHandler() {
+	            private boolean returned;
+
+	            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+	              if ("close".equals(method.getName())) { //$NON-NLS-1$
+	                synchronized (this) {
+	                  if (!returned) {
+	                    returned = true;
+	                    bouncer.connectionReturned(borrower);
+	                  }
+	                }
+	              }
+	              try {
+	                return method.invoke(connection, args);
+	              } catch (InvocationTargetException e) {
+	                throw e.getTargetException();
+	              }
+	            }
+	          });
 	    }
 
 	    public Connection getConnection(String username, String password) throws SQLException {
@@ -17,15 +17,35 @@
 
 package org.pentaho.agilebi.platform;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
 import org.mortbay.jetty.Connector;
 import org.mortbay.jetty.Handler;
+import org.mortbay.jetty.HttpConnection;
 import org.mortbay.jetty.Server;
-import org.mortbay.jetty.bio.SocketConnector;
 import org.mortbay.jetty.handler.DefaultHandler;
 import org.mortbay.jetty.handler.HandlerCollection;
+import org.mortbay.jetty.handler.HandlerList;
+import org.mortbay.jetty.handler.HandlerWrapper;
+import org.mortbay.jetty.nio.SelectChannelConnector;
+import org.mortbay.jetty.servlet.FilterHolder;
 import org.mortbay.jetty.webapp.WebAppContext;
+import org.mortbay.servlet.GzipFilter;
+import org.mortbay.thread.QueuedThreadPool;
+import org.pentaho.agilebi.vfs.MondrianSchemaCache;
 import org.pentaho.di.core.logging.LogChannel;
 import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.platform.api.data.IDBDatasourceService;
+import org.pentaho.platform.engine.core.system.PentahoSystem;
 
 public class JettyServer {
   
@@ -35,17 +55,69 @@ public class JettyServer {
 
   public static final int PORT = 80;
 
+  // how long the server gets to stop once the running requests are done or cancelled
+  private static final int STOP_TIMEOUT = 5000;
+
+  // how long requests get to fail after their statements were cancelled
+  private static final int CANCEL_GRACE_PERIOD = 1000;
+
+  private static final String[] DATASOURCE_SERVICE_KEYS = { null, "IDatasourceService" }; //$NON-NLS-1$
+
+  private static final String GZIP_MIME_TYPES = "text/html,text/plain,text/xml,text/css,text/javascript," //$NON-NLS-1$
+      + "application/javascript,application/x-javascript,application/json,application/xml"; //$NON-NLS-1$
+
   private Server server;
 
   private String hostname;
 
   private int port;
+
+  private int minPort;
+
+  private int maxPort;
+
+  private JettyServerConfig config;
+
+  private SelectChannelConnector connector;
+
+  private StaticResourceHandler staticResources;
+
+  private QueuedThreadPool threadPool;
+
+  private final List<SelectChannelConnector> sessionConnectors = new ArrayList<SelectChannelConnector>();
+
+  // port of each session connector -> number of sessions assigned to it
+  private final Map<Integer, Integer> sessionLoad = new LinkedHashMap<Integer, Integer>();
+
+  private volatile long lastRequestTime;
+
+  private final AtomicInteger activeRequests = new AtomicInteger();
+
+  private volatile boolean shuttingDown;
   
   private String webappsFolder = "plugins/spoon/agile-bi/platform/webapps"; //$NON-NLS-1$
 
   public JettyServer(String hostname, int port) throws Exception {
+    this(hostname, port, JettyServerConfig.load());
+  }
+
+  public JettyServer(String hostname, int port, JettyServerConfig config) throws Exception {
+    this(hostname, port, port, config);
+  }
+
+  /**
+   * Creates a server listening on the first free port of the range configured in the given settings.
+   */
+  public JettyServer(String hostname, JettyServerConfig config) throws Exception {
+    this(hostname, config.getMinPort(), config.getMaxPort(), config);
+  }
+
+  private JettyServer(String hostname, int minPort, int maxPort, JettyServerConfig config) {
     this.hostname = hostname;
-    this.port = port;
+    this.minPort = minPort;
+    this.maxPort = Math.max(minPort, maxPort);
+    this.port = minPort;
+    this.config = config;
   }
 
   public void setWebappsFolder(String webappsFolder) {
@@ -56,8 +128,14 @@ public class JettyServer {
     return server;
   }
 
+  public JettyServerConfig getConfig() {
+    return config;
+  }
+
   public void startServer() throws Exception {
     server = new Server();
+    threadPool = createThreadPool();
+    server.setThreadPool(threadPool);
 
     WebAppContext pentahoContext = new WebAppContext();
     pentahoContext.setClassLoader(getClass().getClassLoader());
@@ -65,40 +143,338 @@ public class JettyServer {
     pentahoContext.setWar(webappsFolder + "/pentaho"); //$NON-NLS-1$
     
     pentahoContext.setParentLoaderPriority(true);
+
+    if (config.isCompression()) {
+      pentahoContext.addFilter(createGzipFilter(), "/*", Handler.REQUEST); //$NON-NLS-1$
+    }
+    staticResources = new StaticResourceHandler(config);
+    staticResources.setHandler(pentahoContext);
     
+    // the metrics endpoint has to get a look at requests before the pentaho webapp answers them
+    HandlerList contexts = new HandlerList();
+    contexts.setHandlers(new Handler[]{new MetricsHandler(), staticResources});
+
     HandlerCollection handlers= new HandlerCollection();
-    handlers.setHandlers(new Handler[]{pentahoContext, new DefaultHandler()});
+    handlers.setHandlers(new Handler[]{contexts, new DefaultHandler()});
+
+    registerMetrics();
+
+    RequestStatisticsHandler statistics = new RequestStatisticsHandler(config.getMetricsEndpointDepth(),
+        config.getMetricsMaxEndpoints());
+    statistics.setHandler(handlers);
 
-    server.setHandler(handlers);
+    ActivityHandler activity = new ActivityHandler();
+    activity.setHandler(statistics);
+    server.setHandler(activity);
 
     // Start execution
-    createListeners();
+    bind();
+    List<Connector> connectors = new ArrayList<Connector>();
+    connectors.add(connector);
+    connectors.addAll(sessionConnectors);
+    server.setConnectors(connectors.toArray(new Connector[connectors.size()]));
 
+    lastRequestTime = System.currentTimeMillis();
+    shuttingDown = false;
     server.start();
   }
 
+  /**
+   * Assigns a visualization session to the session connector serving the fewest sessions, so a session's requests
+   * are handled by a thread pool it shares with as few others as possible. Without session connectors every session
+   * gets the main port.
+   *
+   * @return the port the session should send its requests to
+   */
+  public synchronized int acquireSessionPort() {
+    Integer leastLoaded = null;
+    for (Map.Entry<Integer, Integer> entry : sessionLoad.entrySet()) {
+      if (leastLoaded == null || entry.getValue() < sessionLoad.get(leastLoaded)) {
+        leastLoaded = entry.getKey();
+      }
+    }
+    if (leastLoaded == null) {
+      return port;
+    }
+    sessionLoad.put(leastLoaded, sessionLoad.get(leastLoaded) + 1);
+    return leastLoaded;
+  }
+
+  /**
+   * Ends a session's assignment to a port returned by {@link #acquireSessionPort()}.
+   */
+  public synchronized void releaseSessionPort(int sessionPort) {
+    Integer load = sessionLoad.get(sessionPort);
+    if (load != null && load > 0) {
+      sessionLoad.put(sessionPort, load - 1);
+    }
+  }
+
+  /**
+   * @return the ports of the session connectors
+   */
+  public synchronized int[] getSessionPorts() {
+    int[] ports = new int[sessionLoad.size()];
+    int i = 0;
+    for (Integer sessionPort : sessionLoad.keySet()) {
+      ports[i++] = sessionPort;
+    }
+    return ports;
+  }
+
+  /**
+   * @return the number of requests being handled
+   */
+  public int getActiveRequests() {
+    return activeRequests.get();
+  }
+
+  /**
+   * @return when the server last received a request, or was started if it hasn't received any
+   */
+  public long getLastRequestTime() {
+    return lastRequestTime;
+  }
+
+  private void registerMetrics() {
+    AgileBiMetrics metrics = AgileBiMetrics.getInstance();
+    metrics.register("Cache", "MondrianSchemaCache", MondrianSchemaCache.getInstance()); //$NON-NLS-1$ //$NON-NLS-2$
+    metrics.register("Cache", "DatabaseMetaCache", DatabaseMetaCache.getInstance()); //$NON-NLS-1$ //$NON-NLS-2$
+    metrics.register("Cache", "StaticResources", staticResources); //$NON-NLS-1$ //$NON-NLS-2$
+    metrics.register("ThreadPool", threadPool.getName(), new ThreadPoolStatistics(threadPool)); //$NON-NLS-1$
+  }
+
+  private FilterHolder createGzipFilter() {
+    // the static plugin resources are compressed once by the StaticResourceHandler, this covers the dynamic responses
+    FilterHolder gzip = new FilterHolder(GzipFilter.class);
+    gzip.setInitParameter("mimeTypes", GZIP_MIME_TYPES); //$NON-NLS-1$
+    gzip.setInitParameter("minGzipSize", "1024"); //$NON-NLS-1$ //$NON-NLS-2$
+    return gzip;
+  }
+
   protected void setupListeners() {
 
   }
 
+  /**
+   * Stops the server in a bounded time. New requests are refused with 503 right away, running requests get the
+   * configured shutdown timeout to finish, after which the queries they wait on are cancelled. The datasource pools
+   * are closed before the webapp is stopped, and a server that still doesn't stop in time is left behind.
+   */
   public void stopServer() {
+    if (server == null) {
+      // bound, but never started
+      List<SelectChannelConnector> bound = new ArrayList<SelectChannelConnector>(sessionConnectors);
+      if (connector != null) {
+        bound.add(connector);
+      }
+      for (SelectChannelConnector boundConnector : bound) {
+        try {
+          boundConnector.close();
+        } catch (IOException e) {
+          log.logError("WebServer.Error.FailedToStop.Title", e);
+        }
+      }
+      unregisterThreadPoolMetrics();
+      return;
+    }
+
+    shuttingDown = true;
+    if (!awaitIdle(config.getShutdownTimeout())) {
+      int cancelled = cancelRunningStatements();
+      log.logBasic(activeRequests.get() + " requests still running after " + config.getShutdownTimeout() //$NON-NLS-1$
+          + "ms, cancelled " + cancelled + " statements"); //$NON-NLS-1$ //$NON-NLS-2$
+      awaitIdle(CANCEL_GRACE_PERIOD);
+    }
+    closeDatasourcePools();
+
+    final Server stopping = server;
+    Thread stopper = new Thread("agilebi-jetty-stop") { //$NON-NLS-1$
+      public void run() {
+        try {
+          stopping.stop();
+        } catch (Exception e) {
+          log.logError("WebServer.Error.FailedToStop.Title", e);
+        }
+      }
+    };
+    stopper.setDaemon(true);
+    stopper.start();
     try {
-      if (server != null) {
-        server.stop();
+      stopper.join(STOP_TIMEOUT);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (stopper.isAlive()) {
+      log.logError("The Agile BI server did not stop within " + STOP_TIMEOUT + "ms, leaving it behind"); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+    unregisterThreadPoolMetrics();
+  }
+
+  /**
+   * Removes the thread pool statistics of the main and the session connectors, so a stopped server doesn't keep its
+   * pools reachable through JMX.
+   */
+  private synchronized void unregisterThreadPoolMetrics() {
+    AgileBiMetrics metrics = AgileBiMetrics.getInstance();
+    if (threadPool != null) {
+      metrics.unregister("ThreadPool", threadPool.getName()); //$NON-NLS-1$
+    }
+    for (SelectChannelConnector sessionConnector : sessionConnectors) {
+      if (sessionConnector.getThreadPool() instanceof QueuedThreadPool) {
+        metrics.unregister("ThreadPool", ((QueuedThreadPool) sessionConnector.getThreadPool()).getName()); //$NON-NLS-1$
+      }
+    }
+    // visualizations closed after the stop release ports of this server
+    sessionLoad.clear();
+  }
+
+  private boolean awaitIdle(long timeout) {
+    long deadline = System.currentTimeMillis() + timeout;
+    while (activeRequests.get() > 0) {
+      long remaining = deadline - System.currentTimeMillis();
+      if (remaining <= 0) {
+        return false;
+      }
+      try {
+        Thread.sleep(Math.min(remaining, 50));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private int cancelRunningStatements() {
+    int cancelled = 0;
+    for (String key : DATASOURCE_SERVICE_KEYS) {
+      IDBDatasourceService service = getDatasourceService(key);
+      if (service instanceof ICancellableDatasourceService) {
+        cancelled += ((ICancellableDatasourceService) service).cancelRunningStatements();
+      }
+    }
+    return cancelled;
+  }
+
+  private void closeDatasourcePools() {
+    for (String key : DATASOURCE_SERVICE_KEYS) {
+      IDBDatasourceService service = getDatasourceService(key);
+      if (service != null) {
+        try {
+          service.clearCache();
+        } catch (Exception e) {
+          log.logError("Could not close the datasource pools", e); //$NON-NLS-1$
+        }
       }
-    } catch (Exception e) {
-      log.logError("WebServer.Error.FailedToStop.Title", e);
     }
   }
 
-  private void createListeners() {
-    SocketConnector connector = new SocketConnector();
+  private IDBDatasourceService getDatasourceService(String key) {
+    try {
+      return key == null ? PentahoSystem.get(IDBDatasourceService.class, null)
+          : PentahoSystem.get(IDBDatasourceService.class, key, null);
+    } catch (Throwable e) {
+      // the platform didn't initialize
+      return null;
+    }
+  }
+
+  private QueuedThreadPool createThreadPool() {
+    return createThreadPool("agilebi-jetty", config.getMaxThreads()); //$NON-NLS-1$
+  }
+
+  private QueuedThreadPool createThreadPool(String name, int maxThreads) {
+    QueuedThreadPool threadPool = new QueuedThreadPool();
+    threadPool.setName(name);
+    threadPool.setMinThreads(Math.min(config.getMinThreads(), maxThreads));
+    threadPool.setMaxThreads(maxThreads);
+    threadPool.setMaxIdleTimeMs(config.getThreadMaxIdleTime());
+    threadPool.setMaxStopTimeMs(STOP_TIMEOUT);
+    return threadPool;
+  }
+
+  /**
+   * Binds the listener to the first port of the configured range the server socket can be bound to, so the port is
+   * known, and reserved, before the webapp starts. The session connectors are bound to the following ports. Called by {@link #startServer()} if needed.
+   *
+   * @return the port the server listens on
+   * @throws IOException if none of the ports can be bound
+   */
+  public synchronized int bind() throws IOException {
+    if (connector != null) {
+      return port;
+    }
+    connector = openConnector(minPort, maxPort);
+    port = connector.getLocalPort();
+    log.logBasic("WebServer.Log.CreateListener " + hostname + ":" + port);
+    bindSessionConnectors();
+    return port;
+  }
+
+  /**
+   * Binds the configured number of session connectors to the ports following the main one. Each gets its own thread
+   * pool, so a runaway query of a visualization can only exhaust the threads of the sessions sharing its connector.
+   * Fewer connectors are bound if the range runs out of free ports.
+   */
+  private void bindSessionConnectors() {
+    int from = minPort == 0 ? 0 : port + 1;
+    for (int i = sessionConnectors.size(); i < config.getSessionPools(); i++) {
+      SelectChannelConnector sessionConnector;
+      try {
+        sessionConnector = openConnector(from, minPort == 0 ? 0 : maxPort);
+      } catch (IOException e) {
+        log.logError("Could not bind session connector " + (i + 1) + ", visualizations share the remaining ones", e); //$NON-NLS-1$ //$NON-NLS-2$
+        break;
+      }
+      QueuedThreadPool sessionPool = createThreadPool("agilebi-jetty-session-" + (i + 1), config.getSessionPoolThreads()); //$NON-NLS-1$
+      sessionConnector.setThreadPool(sessionPool);
+      sessionConnectors.add(sessionConnector);
+      sessionLoad.put(sessionConnector.getLocalPort(), 0);
+      AgileBiMetrics.getInstance().register("ThreadPool", sessionPool.getName(), new ThreadPoolStatistics(sessionPool)); //$NON-NLS-1$
+      if (minPort != 0) {
+        from = sessionConnector.getLocalPort() + 1;
+      }
+    }
+  }
+
+  private SelectChannelConnector openConnector(int from, int to) throws IOException {
+    IOException failure = null;
+    for (int candidate = from; candidate <= to; candidate++) {
+      SelectChannelConnector candidateConnector = createConnector(candidate);
+      try {
+        candidateConnector.open();
+      } catch (IOException e) {
+        failure = e;
+        candidateConnector.close();
+        continue;
+      }
+      return candidateConnector;
+    }
+    IOException e = new IOException("Could not bind the Agile-BI server to a port between " + from + " and " + to); //$NON-NLS-1$ //$NON-NLS-2$
+    e.initCause(failure);
+    throw e;
+  }
+
+  private SelectChannelConnector createConnector(int port) {
+    // one selector serves all the parallel XHRs of analyzer and instaview instead of a blocked thread per connection
+    SelectChannelConnector connector = new SelectChannelConnector();
     connector.setPort(port);
     connector.setHost(hostname);
     connector.setName(hostname);
-    log.logBasic("WebServer.Log.CreateListener " + hostname + ":" + port);
+    connector.setAcceptors(config.getAcceptors());
+    connector.setMaxIdleTime(config.getMaxIdleTime());
+    connector.setAcceptQueueSize(config.getAcceptQueueSize());
+    connector.setLowResourcesConnections(config.getLowResourcesConnections());
+    connector.setLowResourcesMaxIdleTime(config.getLowResourcesMaxIdleTime());
+    return connector;
+  }
 
-    server.setConnectors(new Connector[] { connector });
+  /**
+   * @return the port the server listens on once it is bound
+   */
+  public int getPort() {
+    return port;
   }
 
   /**
@@ -115,4 +491,28 @@ public class JettyServer {
     this.hostname = hostname;
   }
 
+  /**
+   * Records the time of every request and counts the requests being handled. Refuses new requests once the server
+   * is shutting down.
+   */
+  private class ActivityHandler extends HandlerWrapper {
+
+    @Override
+    public void handle(String target, HttpServletRequest request, HttpServletResponse response, int dispatch)
+        throws IOException, ServletException {
+      lastRequestTime = System.currentTimeMillis();
+      if (shuttingDown) {
+        response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        HttpConnection.getCurrentConnection().getRequest().setHandled(true);
+        return;
+      }
+      activeRequests.incrementAndGet();
+      try {
+        super.handle(target, request, response, dispatch);
+      } finally {
+        activeRequests.decrementAndGet();
+      }
+    }
+  }
+
 }
@@ -0,0 +1,460 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.platform;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.pentaho.di.core.logging.LogChannel;
+import org.pentaho.di.core.logging.LogChannelInterface;
+
+/**
+ * Port, connector, thread pool and caching settings of the embedded Agile BI server, read from
+ * plugins/spoon/agile-bi/server.properties. Settings missing from the file keep their defaults.
+ */
+public class JettyServerConfig {
+
+  private static LogChannelInterface log = new LogChannel(JettyServerConfig.class.toString());
+
+  public static final String CONFIG_FILE_LOCATION = "plugins/spoon/agile-bi/server.properties"; //$NON-NLS-1$
+
+  public static final String STARTUP_EAGER = "eager"; //$NON-NLS-1$
+
+  public static final String STARTUP_LAZY = "lazy"; //$NON-NLS-1$
+
+  private String startup = STARTUP_LAZY;
+
+  private int idleShutdownMinutes = 0;
+
+  private String startupTraceFile = null;
+
+  private int shutdownTimeout = 5000;
+
+  private int sessionPools = 0;
+
+  private int sessionPoolThreads = 10;
+
+  private int minPort = 10000;
+
+  private int maxPort = 10099;
+
+  private int acceptors = 1;
+
+  private int maxIdleTime = 30000;
+
+  private int acceptQueueSize = 50;
+
+  private int lowResourcesConnections = 200;
+
+  private int lowResourcesMaxIdleTime = 5000;
+
+  private int minThreads = 4;
+
+  private int maxThreads = 50;
+
+  private int threadMaxIdleTime = 60000;
+
+  private boolean compression = true;
+
+  private int metricsEndpointDepth = 4;
+
+  private int metricsMaxEndpoints = 100;
+
+  private String[] staticResourcePlugins = { "common-ui", "analyzer" }; //$NON-NLS-1$ //$NON-NLS-2$
+
+  private String[] staticResourceExtensions = { "js", "css", "png", "gif", "jpg", "jpeg", "svg", "ico", "woff", "ttf", "eot" }; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$ //$NON-NLS-9$ //$NON-NLS-10$ //$NON-NLS-11$
+
+  private int staticResourceMaxAge = 86400;
+
+  private int staticResourceCacheMb = 64;
+
+  private int staticResourceMaxEntryKb = 4096;
+
+  public JettyServerConfig() {
+  }
+
+  /**
+   * Reads the settings from plugins/spoon/agile-bi/server.properties, falling back to the defaults if the file
+   * doesn't exist or can't be read.
+   *
+   * @return the server settings
+   */
+  public static JettyServerConfig load() {
+    return load(new File(CONFIG_FILE_LOCATION));
+  }
+
+  public static JettyServerConfig load(File file) {
+    JettyServerConfig config = new JettyServerConfig();
+    if (!file.exists()) {
+      return config;
+    }
+    Properties props = new Properties();
+    try {
+      InputStream in = new FileInputStream(file);
+      try {
+        props.load(in);
+      } finally {
+        in.close();
+      }
+    } catch (Exception e) {
+      log.logError("Could not read " + file.getPath() + ", using the default server settings", e); //$NON-NLS-1$ //$NON-NLS-2$
+      return config;
+    }
+    config.load(props);
+    return config;
+  }
+
+  public void load(Properties props) {
+    startup = props.getProperty("server.startup", startup).trim(); //$NON-NLS-1$
+    idleShutdownMinutes = getInt(props, "server.idleShutdownMinutes", idleShutdownMinutes); //$NON-NLS-1$
+    startupTraceFile = props.getProperty("server.startupTraceFile", startupTraceFile); //$NON-NLS-1$
+    shutdownTimeout = getInt(props, "server.shutdownTimeout", shutdownTimeout); //$NON-NLS-1$
+    sessionPools = getInt(props, "server.sessionPools", sessionPools); //$NON-NLS-1$
+    sessionPoolThreads = getInt(props, "server.sessionPoolThreads", sessionPoolThreads); //$NON-NLS-1$
+    minPort = getInt(props, "server.minPort", minPort); //$NON-NLS-1$
+    maxPort = getInt(props, "server.maxPort", maxPort); //$NON-NLS-1$
+    acceptors = getInt(props, "connector.acceptors", acceptors); //$NON-NLS-1$
+    maxIdleTime = getInt(props, "connector.maxIdleTime", maxIdleTime); //$NON-NLS-1$
+    acceptQueueSize = getInt(props, "connector.acceptQueueSize", acceptQueueSize); //$NON-NLS-1$
+    lowResourcesConnections = getInt(props, "connector.lowResourcesConnections", lowResourcesConnections); //$NON-NLS-1$
+    lowResourcesMaxIdleTime = getInt(props, "connector.lowResourcesMaxIdleTime", lowResourcesMaxIdleTime); //$NON-NLS-1$
+    minThreads = getInt(props, "threadPool.minThreads", minThreads); //$NON-NLS-1$
+    maxThreads = getInt(props, "threadPool.maxThreads", maxThreads); //$NON-NLS-1$
+    threadMaxIdleTime = getInt(props, "threadPool.maxIdleTime", threadMaxIdleTime); //$NON-NLS-1$
+    compression = getBoolean(props, "compression.enabled", compression); //$NON-NLS-1$
+    metricsEndpointDepth = getInt(props, "metrics.endpointDepth", metricsEndpointDepth); //$NON-NLS-1$
+    metricsMaxEndpoints = getInt(props, "metrics.maxEndpoints", metricsMaxEndpoints); //$NON-NLS-1$
+    staticResourcePlugins = getList(props, "static.plugins", staticResourcePlugins); //$NON-NLS-1$
+    staticResourceExtensions = getList(props, "static.extensions", staticResourceExtensions); //$NON-NLS-1$
+    staticResourceMaxAge = getInt(props, "static.maxAge", staticResourceMaxAge); //$NON-NLS-1$
+    staticResourceCacheMb = getInt(props, "static.cacheMb", staticResourceCacheMb); //$NON-NLS-1$
+    staticResourceMaxEntryKb = getInt(props, "static.maxEntryKb", staticResourceMaxEntryKb); //$NON-NLS-1$
+  }
+
+  protected static boolean getBoolean(Properties props, String key, boolean defaultValue) {
+    String value = props.getProperty(key);
+    if (value == null || value.trim().length() == 0) {
+      return defaultValue;
+    }
+    return Boolean.parseBoolean(value.trim());
+  }
+
+  protected static String[] getList(Properties props, String key, String[] defaultValue) {
+    String value = props.getProperty(key);
+    if (value == null) {
+      return defaultValue;
+    }
+    List<String> items = new ArrayList<String>();
+    for (String item : value.split(",")) { //$NON-NLS-1$
+      if (item.trim().length() > 0) {
+        items.add(item.trim());
+      }
+    }
+    return items.toArray(new String[items.size()]);
+  }
+
+  protected static int getInt(Properties props, String key, int defaultValue) {
+    String value = props.getProperty(key);
+    if (value == null || value.trim().length() == 0) {
+      return defaultValue;
+    }
+    try {
+      return Integer.parseInt(value.trim());
+    } catch (NumberFormatException e) {
+      log.logError("Invalid value '" + value + "' for " + key + ", using " + defaultValue); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+      return defaultValue;
+    }
+  }
+
+  /**
+   * @return {@link #STARTUP_EAGER} to start the server with Spoon, {@link #STARTUP_LAZY} to start it on the first
+   *         action that needs it
+   */
+  public String getStartup() {
+    return startup;
+  }
+
+  public void setStartup(String startup) {
+    this.startup = startup;
+  }
+
+  public boolean isLazyStartup() {
+    return !STARTUP_EAGER.equalsIgnoreCase(startup);
+  }
+
+  /**
+   * @return how many minutes without requests, visualizations or Instaview the server keeps running, 0 to keep it
+   *         running until Spoon exits
+   */
+  public int getIdleShutdownMinutes() {
+    return idleShutdownMinutes;
+  }
+
+  public void setIdleShutdownMinutes(int idleShutdownMinutes) {
+    this.idleShutdownMinutes = idleShutdownMinutes;
+  }
+
+  /**
+   * @return the file the startup phases are written to in the Chrome trace format, null or empty to not write them
+   */
+  public String getStartupTraceFile() {
+    return startupTraceFile;
+  }
+
+  public void setStartupTraceFile(String startupTraceFile) {
+    this.startupTraceFile = startupTraceFile;
+  }
+
+  /**
+   * @return how long, in milliseconds, running requests get to finish when the server stops before their queries
+   *         are cancelled
+   */
+  public int getShutdownTimeout() {
+    return shutdownTimeout;
+  }
+
+  public void setShutdownTimeout(int shutdownTimeout) {
+    this.shutdownTimeout = shutdownTimeout;
+  }
+
+  /**
+   * @return the number of extra connectors, each with its own port and thread pool, visualization tabs are spread
+   *         over; 0 to serve everything from the main connector
+   */
+  public int getSessionPools() {
+    return sessionPools;
+  }
+
+  public void setSessionPools(int sessionPools) {
+    this.sessionPools = sessionPools;
+  }
+
+  /**
+   * @return the maximum number of request threads of each session connector
+   */
+  public int getSessionPoolThreads() {
+    return sessionPoolThreads;
+  }
+
+  public void setSessionPoolThreads(int sessionPoolThreads) {
+    this.sessionPoolThreads = sessionPoolThreads;
+  }
+
+  /**
+   * @return the first port the server tries to listen on, 0 to let the operating system pick a free port
+   */
+  public int getMinPort() {
+    return minPort;
+  }
+
+  public void setMinPort(int minPort) {
+    this.minPort = minPort;
+  }
+
+  /**
+   * @return the last port the server tries to listen on
+   */
+  public int getMaxPort() {
+    return maxPort;
+  }
+
+  public void setMaxPort(int maxPort) {
+    this.maxPort = maxPort;
+  }
+
+  /**
+   * @return the number of threads accepting new connections
+   */
+  public int getAcceptors() {
+    return acceptors;
+  }
+
+  public void setAcceptors(int acceptors) {
+    this.acceptors = acceptors;
+  }
+
+  /**
+   * @return how long, in milliseconds, an idle keep-alive connection is kept open
+   */
+  public int getMaxIdleTime() {
+    return maxIdleTime;
+  }
+
+  public void setMaxIdleTime(int maxIdleTime) {
+    this.maxIdleTime = maxIdleTime;
+  }
+
+  /**
+   * @return the backlog of the server socket
+   */
+  public int getAcceptQueueSize() {
+    return acceptQueueSize;
+  }
+
+  public void setAcceptQueueSize(int acceptQueueSize) {
+    this.acceptQueueSize = acceptQueueSize;
+  }
+
+  /**
+   * @return the number of open connections above which idle connections are closed sooner
+   */
+  public int getLowResourcesConnections() {
+    return lowResourcesConnections;
+  }
+
+  public void setLowResourcesConnections(int lowResourcesConnections) {
+    this.lowResourcesConnections = lowResourcesConnections;
+  }
+
+  /**
+   * @return the idle time, in milliseconds, used instead of the max idle time when resources are low
+   */
+  public int getLowResourcesMaxIdleTime() {
+    return lowResourcesMaxIdleTime;
+  }
+
+  public void setLowResourcesMaxIdleTime(int lowResourcesMaxIdleTime) {
+    this.lowResourcesMaxIdleTime = lowResourcesMaxIdleTime;
+  }
+
+  /**
+   * @return the number of request threads kept alive
+   */
+  public int getMinThreads() {
+    return minThreads;
+  }
+
+  public void setMinThreads(int minThreads) {
+    this.minThreads = minThreads;
+  }
+
+  /**
+   * @return the maximum number of request threads
+   */
+  public int getMaxThreads() {
+    return maxThreads;
+  }
+
+  public void setMaxThreads(int maxThreads) {
+    this.maxThreads = maxThreads;
+  }
+
+  /**
+   * @return how long, in milliseconds, a request thread above the minimum may sit idle before it stops
+   */
+  public int getThreadMaxIdleTime() {
+    return threadMaxIdleTime;
+  }
+
+  public void setThreadMaxIdleTime(int threadMaxIdleTime) {
+    this.threadMaxIdleTime = threadMaxIdleTime;
+  }
+
+  /**
+   * @return true to gzip text responses of the webapp for clients accepting it
+   */
+  public boolean isCompression() {
+    return compression;
+  }
+
+  public void setCompression(boolean compression) {
+    this.compression = compression;
+  }
+
+  /**
+   * @return the number of path segments identifying the endpoint requests are measured for
+   */
+  public int getMetricsEndpointDepth() {
+    return metricsEndpointDepth;
+  }
+
+  public void setMetricsEndpointDepth(int metricsEndpointDepth) {
+    this.metricsEndpointDepth = metricsEndpointDepth;
+  }
+
+  /**
+   * @return the maximum number of endpoints measured separately, requests to others only count in the total
+   */
+  public int getMetricsMaxEndpoints() {
+    return metricsMaxEndpoints;
+  }
+
+  public void setMetricsMaxEndpoints(int metricsMaxEndpoints) {
+    this.metricsMaxEndpoints = metricsMaxEndpoints;
+  }
+
+  /**
+   * @return the plugins whose static resources are cached in memory and sent with long lived caching headers
+   */
+  public String[] getStaticResourcePlugins() {
+    return staticResourcePlugins;
+  }
+
+  public void setStaticResourcePlugins(String[] staticResourcePlugins) {
+    this.staticResourcePlugins = staticResourcePlugins;
+  }
+
+  /**
+   * @return the file extensions, without the dot, of the static resources
+   */
+  public String[] getStaticResourceExtensions() {
+    return staticResourceExtensions;
+  }
+
+  public void setStaticResourceExtensions(String[] staticResourceExtensions) {
+    this.staticResourceExtensions = staticResourceExtensions;
+  }
+
+  /**
+   * @return how long, in seconds, browsers may use a static resource without revalidating it
+   */
+  public int getStaticResourceMaxAge() {
+    return staticResourceMaxAge;
+  }
+
+  public void setStaticResourceMaxAge(int staticResourceMaxAge) {
+    this.staticResourceMaxAge = staticResourceMaxAge;
+  }
+
+  /**
+   * @return the maximum size, in megabytes, of the static resources kept in memory
+   */
+  public int getStaticResourceCacheMb() {
+    return staticResourceCacheMb;
+  }
+
+  public void setStaticResourceCacheMb(int staticResourceCacheMb) {
+    this.staticResourceCacheMb = staticResourceCacheMb;
+  }
+
+  /**
+   * @return the size, in kilobytes, above which a static resource isn't kept in memory
+   */
+  public int getStaticResourceMaxEntryKb() {
+    return staticResourceMaxEntryKb;
+  }
+
+  public void setStaticResourceMaxEntryKb(int staticResourceMaxEntryKb) {
+    this.staticResourceMaxEntryKb = staticResourceMaxEntryKb;
+  }
+
+}
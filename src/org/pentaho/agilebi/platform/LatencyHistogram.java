@@ -0,0 +1,108 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.platform;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of durations in milliseconds, with fixed, roughly logarithmic buckets. Percentiles are
+ * reported as the upper bound of the bucket they fall in.
+ */
+public class LatencyHistogram {
+
+  private static final long[] BUCKET_BOUNDS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000,
+      60000, Long.MAX_VALUE };
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_BOUNDS.length);
+
+  private final AtomicLong count = new AtomicLong();
+
+  private final AtomicLong total = new AtomicLong();
+
+  private final AtomicLong max = new AtomicLong();
+
+  public void record(long millis) {
+    if (millis < 0) {
+      millis = 0;
+    }
+    int bucket = 0;
+    while (millis > BUCKET_BOUNDS[bucket]) {
+      bucket++;
+    }
+    buckets.incrementAndGet(bucket);
+    count.incrementAndGet();
+    total.addAndGet(millis);
+    long currentMax = max.get();
+    while (millis > currentMax && !max.compareAndSet(currentMax, millis)) {
+      currentMax = max.get();
+    }
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  public long getMax() {
+    return max.get();
+  }
+
+  public double getMean() {
+    long n = count.get();
+    return n == 0 ? 0 : (double) total.get() / n;
+  }
+
+  /**
+   * @param percentile between 0 and 100
+   * @return the upper bound of the bucket holding the given percentile, capped by the maximum recorded value
+   */
+  public long getPercentile(double percentile) {
+    long n = count.get();
+    if (n == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(n * percentile / 100d);
+    long seen = 0;
+    for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+      seen += buckets.get(i);
+      if (seen >= rank) {
+        return Math.min(BUCKET_BOUNDS[i], getMax());
+      }
+    }
+    return getMax();
+  }
+
+  /**
+   * @return the upper bounds of the buckets, in milliseconds
+   */
+  public static long[] getBucketBounds() {
+    return BUCKET_BOUNDS.clone();
+  }
+
+  /**
+   * @return the number of recorded durations per bucket
+   */
+  public long[] getBucketCounts() {
+    long[] counts = new long[BUCKET_BOUNDS.length];
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] = buckets.get(i);
+    }
+    return counts;
+  }
+
+}
@@ -0,0 +1,59 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.platform;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.json.JSONException;
+import org.mortbay.jetty.HttpConnection;
+import org.mortbay.jetty.Request;
+import org.mortbay.jetty.handler.AbstractHandler;
+
+/**
+ * Serves the metrics registered with {@link AgileBiMetrics} as JSON at {@link #CONTEXT_PATH}.
+ */
+public class MetricsHandler extends AbstractHandler {
+
+  public static final String CONTEXT_PATH = "/pentaho/agilebi-metrics"; //$NON-NLS-1$
+
+  public void handle(String target, HttpServletRequest request, HttpServletResponse response, int dispatch)
+      throws IOException, ServletException {
+    if (!CONTEXT_PATH.equals(target)) {
+      return;
+    }
+    Request baseRequest = (request instanceof Request) ? (Request) request
+        : HttpConnection.getCurrentConnection().getRequest();
+    String json;
+    try {
+      json = AgileBiMetrics.getInstance().toJSON().toString(2);
+    } catch (JSONException e) {
+      throw new ServletException(e);
+    }
+    response.setContentType("application/json"); //$NON-NLS-1$
+    response.setCharacterEncoding("UTF-8"); //$NON-NLS-1$
+    response.setHeader("Cache-Control", "no-cache"); //$NON-NLS-1$ //$NON-NLS-2$
+    response.setStatus(HttpServletResponse.SC_OK);
+    response.getWriter().write(json);
+    baseRequest.setHandled(true);
+  }
+
+}
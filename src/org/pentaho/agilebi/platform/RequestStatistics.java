@@ -0,0 +1,106 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.platform;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Request count, latency and traffic of one endpoint of the embedded server, or of all of them.
+ */
+public class RequestStatistics implements RequestStatisticsMBean {
+
+  private final LatencyHistogram latency = new LatencyHistogram();
+
+  private final AtomicInteger activeRequests = new AtomicInteger();
+
+  private final AtomicLong errors = new AtomicLong();
+
+  private final AtomicLong bytesIn = new AtomicLong();
+
+  private final AtomicLong bytesOut = new AtomicLong();
+
+  void requestStarted() {
+    activeRequests.incrementAndGet();
+  }
+
+  /**
+   * @param millis time taken to handle the request
+   * @param status status of the response
+   * @param in length of the request body, negative if unknown
+   * @param out number of bytes of the response body, negative if unknown
+   */
+  void requestCompleted(long millis, int status, long in, long out) {
+    activeRequests.decrementAndGet();
+    latency.record(millis);
+    if (status >= 500) {
+      errors.incrementAndGet();
+    }
+    if (in > 0) {
+      bytesIn.addAndGet(in);
+    }
+    if (out > 0) {
+      bytesOut.addAndGet(out);
+    }
+  }
+
+  public long getRequests() {
+    return latency.getCount();
+  }
+
+  public int getActiveRequests() {
+    return activeRequests.get();
+  }
+
+  public long getErrors() {
+    return errors.get();
+  }
+
+  public long getBytesIn() {
+    return bytesIn.get();
+  }
+
+  public long getBytesOut() {
+    return bytesOut.get();
+  }
+
+  public double getLatencyMeanMillis() {
+    return latency.getMean();
+  }
+
+  public long getLatencyMaxMillis() {
+    return latency.getMax();
+  }
+
+  public long getLatencyMedianMillis() {
+    return latency.getPercentile(50);
+  }
+
+  public long getLatency95thPercentileMillis() {
+    return latency.getPercentile(95);
+  }
+
+  public long getLatency99thPercentileMillis() {
+    return latency.getPercentile(99);
+  }
+
+  public long[] getLatencyHistogram() {
+    return latency.getBucketCounts();
+  }
+
+}
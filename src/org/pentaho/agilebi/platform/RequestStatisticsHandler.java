@@ -0,0 +1,160 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.platform;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.mortbay.jetty.HttpConnection;
+import org.mortbay.jetty.Response;
+import org.mortbay.jetty.handler.HandlerWrapper;
+
+/**
+ * Measures the requests handled by the wrapped handler, in total and per endpoint. An endpoint is the beginning of
+ * the request path, up to the configured number of segments, e.g. /pentaho/plugin/analyzer/api for a depth of 4.
+ * Once the configured number of endpoints is tracked, requests to new endpoints are only counted in the total.
+ *
+ * The statistics are registered with {@link AgileBiMetrics} under the Requests type while the handler is started,
+ * the total as {@link #TOTAL}.
+ */
+public class RequestStatisticsHandler extends HandlerWrapper {
+
+  public static final String METRICS_TYPE = "Requests"; //$NON-NLS-1$
+
+  public static final String TOTAL = "total"; //$NON-NLS-1$
+
+  private final RequestStatistics total = new RequestStatistics();
+
+  private final Map<String, RequestStatistics> endpoints = new ConcurrentHashMap<String, RequestStatistics>();
+
+  private final int endpointDepth;
+
+  private final int maxEndpoints;
+
+  public RequestStatisticsHandler(int endpointDepth, int maxEndpoints) {
+    this.endpointDepth = endpointDepth;
+    this.maxEndpoints = maxEndpoints;
+  }
+
+  @Override
+  protected void doStart() throws Exception {
+    AgileBiMetrics.getInstance().register(METRICS_TYPE, TOTAL, total);
+    super.doStart();
+  }
+
+  @Override
+  protected void doStop() throws Exception {
+    super.doStop();
+    AgileBiMetrics metrics = AgileBiMetrics.getInstance();
+    metrics.unregister(METRICS_TYPE, TOTAL);
+    for (String endpoint : endpoints.keySet()) {
+      metrics.unregister(METRICS_TYPE, endpoint);
+    }
+  }
+
+  @Override
+  public void handle(String target, HttpServletRequest request, HttpServletResponse response, int dispatch)
+      throws IOException, ServletException {
+    if (dispatch != REQUEST) {
+      // forwards and includes are part of the request being measured
+      super.handle(target, request, response, dispatch);
+      return;
+    }
+    RequestStatistics endpoint = getEndpoint(request.getRequestURI());
+    total.requestStarted();
+    if (endpoint != null) {
+      endpoint.requestStarted();
+    }
+    long start = System.currentTimeMillis();
+    try {
+      super.handle(target, request, response, dispatch);
+    } finally {
+      long millis = System.currentTimeMillis() - start;
+      Response baseResponse = (response instanceof Response) ? (Response) response
+          : HttpConnection.getCurrentConnection().getResponse();
+      int status = baseResponse.getStatus();
+      long in = request.getContentLength();
+      long out = baseResponse.getContentCount();
+      total.requestCompleted(millis, status, in, out);
+      if (endpoint != null) {
+        endpoint.requestCompleted(millis, status, in, out);
+      }
+    }
+  }
+
+  /**
+   * @return the statistics of all requests
+   */
+  public RequestStatistics getTotal() {
+    return total;
+  }
+
+  /**
+   * @param endpoint beginning of the request path
+   * @return the statistics of the endpoint, null if it hasn't been requested
+   */
+  public RequestStatistics getEndpointStatistics(String endpoint) {
+    return endpoints.get(endpoint);
+  }
+
+  private RequestStatistics getEndpoint(String path) {
+    String endpoint = getEndpointName(path, endpointDepth);
+    RequestStatistics statistics = endpoints.get(endpoint);
+    if (statistics != null) {
+      return statistics;
+    }
+    synchronized (endpoints) {
+      statistics = endpoints.get(endpoint);
+      if (statistics == null) {
+        if (endpoints.size() >= maxEndpoints) {
+          return null;
+        }
+        statistics = new RequestStatistics();
+        endpoints.put(endpoint, statistics);
+        AgileBiMetrics.getInstance().register(METRICS_TYPE, endpoint, statistics);
+      }
+      return statistics;
+    }
+  }
+
+  /**
+   * @param path request path
+   * @param depth number of path segments kept
+   * @return the path cut after the given number of segments
+   */
+  static String getEndpointName(String path, int depth) {
+    if (path == null || path.length() == 0) {
+      return "/"; //$NON-NLS-1$
+    }
+    int end = 0;
+    for (int segment = 0; segment < depth; segment++) {
+      int next = path.indexOf('/', end + 1);
+      if (next < 0) {
+        return path;
+      }
+      end = next;
+    }
+    return end == 0 ? "/" : path.substring(0, end); //$NON-NLS-1$
+  }
+
+}
@@ -0,0 +1,50 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.platform;
+
+/**
+ * JMX view of the {@link RequestStatistics} of one endpoint of the embedded server.
+ */
+public interface RequestStatisticsMBean {
+
+  public long getRequests();
+
+  public int getActiveRequests();
+
+  public long getErrors();
+
+  public long getBytesIn();
+
+  public long getBytesOut();
+
+  public double getLatencyMeanMillis();
+
+  public long getLatencyMaxMillis();
+
+  public long getLatencyMedianMillis();
+
+  public long getLatency95thPercentileMillis();
+
+  public long getLatency99thPercentileMillis();
+
+  /**
+   * @return the number of requests per latency bucket, see {@link LatencyHistogram#getBucketBounds()}
+   */
+  public long[] getLatencyHistogram();
+
+}
@@ -0,0 +1,258 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.platform;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.pentaho.di.core.logging.LogChannel;
+import org.pentaho.di.core.logging.LogChannelInterface;
+
+/**
+ * Times the phases of the Agile BI startup (VFS registration, server bind, webapp start, ...) with a monotonic clock.
+ * Offsets are relative to the start of the profile, which {@link #reset()} starts afresh for every startup: the plugin
+ * start, or a server started on demand. The phases are logged as a single summary line, exposed through
+ * {@link AgileBiMetrics} and can be dumped as a Chrome trace (chrome://tracing) to compare startups between releases.
+ */
+public class StartupProfiler implements StartupProfilerMBean {
+
+  private static LogChannelInterface log = new LogChannel(StartupProfiler.class.toString());
+
+  private static final StartupProfiler instance = new StartupProfiler();
+
+  private volatile Profile profile = new Profile();
+
+  public StartupProfiler() {
+  }
+
+  public static StartupProfiler getInstance() {
+    return instance;
+  }
+
+  /**
+   * Starts a new profile for another startup, dropping the phases of the previous one. Phases begun before the reset
+   * aren't recorded in the new profile.
+   */
+  public void reset() {
+    profile = new Profile();
+  }
+
+  /**
+   * Starts timing a phase on the current thread. The phase is recorded once {@link Phase#end()} is called.
+   *
+   * @param name name of the phase, used as is in the summary and the trace
+   * @return the running phase
+   */
+  public Phase begin(String name) {
+    return new Phase(name);
+  }
+
+  /**
+   * @return the completed phases, in the order they ended
+   */
+  public List<Phase> getPhases() {
+    return new ArrayList<Phase>(profile.phases);
+  }
+
+  public long getTotalMillis() {
+    Profile current = profile;
+    long end = current.origin;
+    for (Phase phase : current.phases) {
+      end = Math.max(end, phase.end);
+    }
+    return toMillis(end - current.origin);
+  }
+
+  public String[] getPhaseNames() {
+    List<Phase> snapshot = getPhases();
+    String[] names = new String[snapshot.size()];
+    for (int i = 0; i < names.length; i++) {
+      names[i] = snapshot.get(i).getName();
+    }
+    return names;
+  }
+
+  public long[] getPhaseOffsets() {
+    List<Phase> snapshot = getPhases();
+    long[] offsets = new long[snapshot.size()];
+    for (int i = 0; i < offsets.length; i++) {
+      offsets[i] = snapshot.get(i).getOffsetMillis();
+    }
+    return offsets;
+  }
+
+  public long[] getPhaseDurations() {
+    List<Phase> snapshot = getPhases();
+    long[] durations = new long[snapshot.size()];
+    for (int i = 0; i < durations.length; i++) {
+      durations[i] = snapshot.get(i).getDurationMillis();
+    }
+    return durations;
+  }
+
+  /**
+   * @return the phases as space separated name=duration pairs, e.g. "total=2310ms vfs-registration=12ms ..."
+   */
+  public String getSummary() {
+    StringBuilder summary = new StringBuilder();
+    summary.append("total=").append(getTotalMillis()).append("ms"); //$NON-NLS-1$ //$NON-NLS-2$
+    for (Phase phase : getPhases()) {
+      summary.append(' ').append(phase.getName()).append('=').append(phase.getDurationMillis()).append("ms"); //$NON-NLS-1$
+    }
+    return summary.toString();
+  }
+
+  /**
+   * Logs the summary and, if a trace file is given, writes the phases to it in the Chrome trace event format.
+   *
+   * @param traceFile file to write the trace to, or null
+   */
+  public void report(String traceFile) {
+    log.logBasic("Agile BI startup phases: " + getSummary()); //$NON-NLS-1$
+    if (traceFile == null || traceFile.length() == 0) {
+      return;
+    }
+    try {
+      writeChromeTrace(new File(traceFile));
+    } catch (Exception e) {
+      log.logError("Could not write the startup trace to " + traceFile, e); //$NON-NLS-1$
+    }
+  }
+
+  /**
+   * @return the phases as complete ("X") events of the Chrome trace event format, timestamps in microseconds
+   */
+  public JSONObject toChromeTrace() throws JSONException {
+    JSONArray events = new JSONArray();
+    for (Phase phase : getPhases()) {
+      JSONObject event = new JSONObject();
+      event.put("name", phase.getName()); //$NON-NLS-1$
+      event.put("cat", "startup"); //$NON-NLS-1$ //$NON-NLS-2$
+      event.put("ph", "X"); //$NON-NLS-1$ //$NON-NLS-2$
+      event.put("ts", (phase.start - phase.profile.origin) / 1000); //$NON-NLS-1$
+      event.put("dur", (phase.end - phase.start) / 1000); //$NON-NLS-1$
+      event.put("pid", 1); //$NON-NLS-1$
+      event.put("tid", phase.getThreadId()); //$NON-NLS-1$
+      JSONObject args = new JSONObject();
+      args.put("thread", phase.getThreadName()); //$NON-NLS-1$
+      event.put("args", args); //$NON-NLS-1$
+      events.put(event);
+    }
+    JSONObject trace = new JSONObject();
+    trace.put("traceEvents", events); //$NON-NLS-1$
+    trace.put("displayTimeUnit", "ms"); //$NON-NLS-1$ //$NON-NLS-2$
+    return trace;
+  }
+
+  public void writeChromeTrace(File file) throws Exception {
+    Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8"); //$NON-NLS-1$
+    try {
+      writer.write(toChromeTrace().toString());
+    } finally {
+      writer.close();
+    }
+  }
+
+  private static long toMillis(long nanos) {
+    return nanos / 1000000L;
+  }
+
+  /**
+   * The phases of one startup.
+   */
+  private static class Profile {
+
+    private final long origin = System.nanoTime();
+
+    private final List<Phase> phases = new CopyOnWriteArrayList<Phase>();
+
+  }
+
+  /**
+   * A phase being, or done being, timed.
+   */
+  public class Phase {
+
+    private final Profile profile = StartupProfiler.this.profile;
+
+    private final String name;
+
+    private final long threadId;
+
+    private final String threadName;
+
+    private final long start;
+
+    private volatile long end;
+
+    /** set once end has been assigned, guarded by this */
+    private volatile boolean ended;
+
+    Phase(String name) {
+      Thread thread = Thread.currentThread();
+      this.name = name;
+      this.threadId = thread.getId();
+      this.threadName = thread.getName();
+      this.start = System.nanoTime();
+    }
+
+    /**
+     * Stops timing the phase and records it. Only the first call has an effect.
+     */
+    public synchronized void end() {
+      if (!ended) {
+        end = System.nanoTime();
+        ended = true;
+        profile.phases.add(this);
+      }
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public long getThreadId() {
+      return threadId;
+    }
+
+    public String getThreadName() {
+      return threadName;
+    }
+
+    /**
+     * @return milliseconds from the start of the profile to the start of the phase
+     */
+    public long getOffsetMillis() {
+      return toMillis(start - profile.origin);
+    }
+
+    public long getDurationMillis() {
+      return ended ? toMillis(end - start) : 0;
+    }
+
+  }
+
+}
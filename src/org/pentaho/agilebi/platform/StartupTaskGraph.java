@@ -0,0 +1,254 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.platform;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.pentaho.di.core.logging.LogChannel;
+import org.pentaho.di.core.logging.LogChannelInterface;
+
+/**
+ * Runs startup steps on a small pool of daemon threads, each step as soon as the steps it depends on are done, so
+ * independent steps overlap. Every step is timed as a {@link StartupProfiler} phase named after it. When a step fails
+ * or is cancelled, the steps depending on it are skipped.
+ */
+public class StartupTaskGraph {
+
+  private static LogChannelInterface log = new LogChannel(StartupTaskGraph.class.toString());
+
+  private final Map<String, Step> steps = new LinkedHashMap<String, Step>();
+
+  private final StartupProfiler profiler;
+
+  private final int threads;
+
+  private ExecutorService executor;
+
+  private CountDownLatch remaining;
+
+  private volatile boolean cancelled;
+
+  private Runnable onComplete;
+
+  public StartupTaskGraph(int threads) {
+    this(threads, StartupProfiler.getInstance());
+  }
+
+  public StartupTaskGraph(int threads, StartupProfiler profiler) {
+    this.threads = threads;
+    this.profiler = profiler;
+  }
+
+  /**
+   * Adds a step. Steps have to be added after the steps they depend on, which rules out cycles.
+   *
+   * @param name unique name of the step
+   * @param task work of the step
+   * @param dependsOn names of the steps that have to complete first
+   */
+  public synchronized void add(String name, Runnable task, String... dependsOn) {
+    if (executor != null) {
+      throw new IllegalStateException("Startup already started"); //$NON-NLS-1$
+    }
+    if (steps.containsKey(name)) {
+      throw new IllegalArgumentException("Duplicate startup step " + name); //$NON-NLS-1$
+    }
+    Step step = new Step(name, task);
+    for (String dependency : dependsOn) {
+      Step parent = steps.get(dependency);
+      if (parent == null) {
+        throw new IllegalArgumentException("Startup step " + name + " depends on unknown step " + dependency); //$NON-NLS-1$ //$NON-NLS-2$
+      }
+      parent.dependents.add(step);
+      step.pending.incrementAndGet();
+    }
+    steps.put(name, step);
+  }
+
+  /**
+   * @param onComplete called once every step has completed, failed or been skipped
+   */
+  public synchronized void setOnComplete(Runnable onComplete) {
+    this.onComplete = onComplete;
+  }
+
+  /**
+   * Starts the steps that don't depend on any other step.
+   */
+  public synchronized void start() {
+    if (executor != null) {
+      return;
+    }
+    remaining = new CountDownLatch(steps.size());
+    executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "agilebi-startup-" + count.incrementAndGet()); //$NON-NLS-1$
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    for (Step step : steps.values()) {
+      if (step.pending.get() == 0) {
+        submit(step);
+      }
+    }
+    if (steps.isEmpty()) {
+      done();
+    }
+  }
+
+  /**
+   * Waits for all steps to complete, fail or be skipped.
+   *
+   * @return true if everything completed in time
+   */
+  public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+    CountDownLatch latch;
+    synchronized (this) {
+      latch = remaining;
+    }
+    return latch == null || latch.await(timeout, unit);
+  }
+
+  /**
+   * Skips the steps that haven't started yet and interrupts the running ones.
+   */
+  public void cancel() {
+    cancelled = true;
+    List<Step> snapshot;
+    synchronized (this) {
+      snapshot = new ArrayList<Step>(steps.values());
+    }
+    for (Step step : snapshot) {
+      Future<?> future = step.future;
+      if (future != null) {
+        future.cancel(true);
+      }
+      // steps that never got to run still have to count down
+      if (future != null && step.started.compareAndSet(false, true)) {
+        complete(step, false);
+      }
+    }
+  }
+
+  public boolean isCancelled() {
+    return cancelled;
+  }
+
+  private void submit(final Step step) {
+    if (cancelled) {
+      step.started.set(true);
+      complete(step, false);
+      return;
+    }
+    step.future = executor.submit(new Runnable() {
+      public void run() {
+        if (step.started.compareAndSet(false, true)) {
+          complete(step, runStep(step));
+        }
+      }
+    });
+  }
+
+  private boolean runStep(Step step) {
+    if (cancelled) {
+      return false;
+    }
+    StartupProfiler.Phase phase = profiler.begin(step.name);
+    try {
+      step.task.run();
+      return true;
+    } catch (Throwable t) {
+      log.logError("Startup step " + step.name + " failed", t); //$NON-NLS-1$ //$NON-NLS-2$
+      return false;
+    } finally {
+      phase.end();
+    }
+  }
+
+  private void complete(Step step, boolean succeeded) {
+    for (Step dependent : step.dependents) {
+      if (!succeeded) {
+        dependent.blocked = true;
+      }
+      if (dependent.pending.decrementAndGet() == 0) {
+        if (dependent.blocked) {
+          log.logBasic("Skipping startup step " + dependent.name); //$NON-NLS-1$
+          dependent.started.set(true);
+          complete(dependent, false);
+        } else {
+          submit(dependent);
+        }
+      }
+    }
+    remaining.countDown();
+    if (remaining.getCount() == 0) {
+      done();
+    }
+  }
+
+  private void done() {
+    Runnable callback;
+    synchronized (this) {
+      callback = onComplete;
+    }
+    try {
+      if (callback != null) {
+        callback.run();
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private static class Step {
+
+    final String name;
+
+    final Runnable task;
+
+    final List<Step> dependents = new ArrayList<Step>();
+
+    final AtomicInteger pending = new AtomicInteger();
+
+    final AtomicBoolean started = new AtomicBoolean();
+
+    volatile boolean blocked;
+
+    volatile Future<?> future;
+
+    Step(String name, Runnable task) {
+      this.name = name;
+      this.task = task;
+    }
+  }
+
+}
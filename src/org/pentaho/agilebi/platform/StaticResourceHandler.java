@@ -0,0 +1,548 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.platform;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.mortbay.jetty.HttpConnection;
+import org.mortbay.jetty.HttpFields;
+import org.mortbay.jetty.Request;
+import org.mortbay.jetty.Response;
+import org.mortbay.jetty.handler.HandlerWrapper;
+import org.mortbay.util.TypeUtil;
+
+/**
+ * Keeps the static resources of the common-ui and analyzer plugins in memory once the webapp has served them, and
+ * serves them with a strong (content hash) ETag, Last-Modified and a far-future Cache-Control header, answering
+ * conditional GETs with 304 and sending a pre-compressed copy of text resources to clients accepting gzip.
+ *
+ * Which requests are cached is decided by the path segments and file extensions of {@link JettyServerConfig}. Only
+ * complete 200 responses to GET requests that don't set cookies are cached. Resources whose response varies on
+ * Accept-Language are kept per language, responses varying on any other request header are not cached. The plugin
+ * resources don't change while the server runs; the least recently used ones are evicted to stay within the cache
+ * size.
+ */
+public class StaticResourceHandler extends HandlerWrapper implements StaticResourceHandlerMBean {
+
+  private static final String[] COMPRESSIBLE_TYPES = { "text/", "application/javascript", //$NON-NLS-1$ //$NON-NLS-2$
+      "application/x-javascript", "application/json", "application/xml", "image/svg+xml" }; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+
+  private static final int MIN_GZIP_SIZE = 1024;
+
+  /** least recently used first, guarded by itself */
+  private final LinkedHashMap<String, CachedResource> cache =
+      new LinkedHashMap<String, CachedResource>(16, 0.75f, true);
+
+  /** guarded by cache */
+  private long cachedBytes;
+
+  // resources localized by the webapp, these are cached per Accept-Language, used as a concurrent set
+  private final Map<String, Boolean> localized = new ConcurrentHashMap<String, Boolean>();
+
+  private final AtomicLong hits = new AtomicLong();
+
+  private final AtomicLong misses = new AtomicLong();
+
+  private final List<String> pathSegments;
+
+  private final List<String> extensions;
+
+  private final long maxAge;
+
+  private final int maxEntrySize;
+
+  private final long maxCacheSize;
+
+  public StaticResourceHandler(JettyServerConfig config) {
+    pathSegments = new ArrayList<String>();
+    for (String plugin : config.getStaticResourcePlugins()) {
+      pathSegments.add('/' + plugin + '/');
+    }
+    extensions = new ArrayList<String>();
+    for (String extension : config.getStaticResourceExtensions()) {
+      extensions.add('.' + extension.toLowerCase());
+    }
+    maxAge = config.getStaticResourceMaxAge();
+    maxEntrySize = config.getStaticResourceMaxEntryKb() * 1024;
+    maxCacheSize = config.getStaticResourceCacheMb() * 1024L * 1024L;
+  }
+
+  @Override
+  public void handle(String target, HttpServletRequest request, HttpServletResponse response, int dispatch)
+      throws IOException, ServletException {
+    if (!isStaticResource(request)) {
+      super.handle(target, request, response, dispatch);
+      return;
+    }
+    HttpConnection connection = HttpConnection.getCurrentConnection();
+    Request baseRequest = (request instanceof Request) ? (Request) request : connection.getRequest();
+    String key = getKey(request);
+    if (localized.containsKey(key)) {
+      key = getLanguageKey(key, request);
+    }
+    CachedResource resource;
+    synchronized (cache) {
+      resource = cache.get(key);
+    }
+    if (resource != null) {
+      hits.incrementAndGet();
+    } else {
+      misses.incrementAndGet();
+      if (!"GET".equals(request.getMethod())) { //$NON-NLS-1$
+        super.handle(target, request, response, dispatch);
+        return;
+      }
+      // the webapp has to send the full, uncompressed resource for it to be cached
+      BufferingResponse buffering = new BufferingResponse(response, maxEntrySize);
+      super.handle(target, new UnconditionalRequest(request), buffering, dispatch);
+      resource = baseRequest.isHandled() ? buffering.toCachedResource(connection.getResponse()) : null;
+      if (resource == null) {
+        buffering.flushBody();
+        return;
+      }
+      if (resource.variesOnLanguage && !localized.containsKey(key)) {
+        localized.put(key, Boolean.TRUE);
+        key = getLanguageKey(key, request);
+      }
+      store(key, resource);
+      // answer the same way as from the cache
+      response.reset();
+    }
+    serve(request, response, resource);
+    baseRequest.setHandled(true);
+  }
+
+  /**
+   * Adds a resource to the cache, evicting the least recently used ones to stay within the cache size.
+   */
+  private void store(String key, CachedResource resource) {
+    if (resource.getSize() > maxCacheSize) {
+      return;
+    }
+    synchronized (cache) {
+      CachedResource previous = cache.put(key, resource);
+      if (previous != null) {
+        cachedBytes -= previous.getSize();
+      }
+      cachedBytes += resource.getSize();
+      for (Iterator<CachedResource> eldest = cache.values().iterator(); cachedBytes > maxCacheSize;) {
+        cachedBytes -= eldest.next().getSize();
+        eldest.remove();
+      }
+    }
+  }
+
+  public int getEntryCount() {
+    synchronized (cache) {
+      return cache.size();
+    }
+  }
+
+  /**
+   * @return the number of bytes held in memory, not counting the compressed copies
+   */
+  public long getCachedBytes() {
+    synchronized (cache) {
+      return cachedBytes;
+    }
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public double getHitRate() {
+    long lookups = hits.get() + misses.get();
+    return lookups == 0 ? 0 : (double) hits.get() / lookups;
+  }
+
+  protected boolean isStaticResource(HttpServletRequest request) {
+    String method = request.getMethod();
+    if (!"GET".equals(method) && !"HEAD".equals(method)) { //$NON-NLS-1$ //$NON-NLS-2$
+      return false;
+    }
+    String path = request.getRequestURI();
+    if (path == null) {
+      return false;
+    }
+    boolean inPlugin = false;
+    for (String segment : pathSegments) {
+      if (path.indexOf(segment) >= 0) {
+        inPlugin = true;
+        break;
+      }
+    }
+    if (!inPlugin) {
+      return false;
+    }
+    String lowerPath = path.toLowerCase();
+    for (String extension : extensions) {
+      if (lowerPath.endsWith(extension)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private String getKey(HttpServletRequest request) {
+    String query = request.getQueryString();
+    return query == null ? request.getRequestURI() : request.getRequestURI() + '?' + query;
+  }
+
+  /**
+   * @return the key of the copy of a localized resource for the language of the request
+   */
+  private String getLanguageKey(String key, HttpServletRequest request) {
+    String language = request.getHeader("Accept-Language"); //$NON-NLS-1$
+    return language == null ? key : key + '\n' + language;
+  }
+
+  private void serve(HttpServletRequest request, HttpServletResponse response, CachedResource resource)
+      throws IOException {
+    response.setHeader("ETag", resource.etag); //$NON-NLS-1$
+    response.setDateHeader("Last-Modified", resource.lastModified); //$NON-NLS-1$
+    response.setHeader("Cache-Control", "public, max-age=" + maxAge); //$NON-NLS-1$ //$NON-NLS-2$
+    if (resource.gzipped != null) {
+      response.addHeader("Vary", "Accept-Encoding"); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+    if (resource.variesOnLanguage) {
+      response.addHeader("Vary", "Accept-Language"); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+    if (isNotModified(request, resource)) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return;
+    }
+
+    byte[] body = resource.content;
+    if (resource.gzipped != null && acceptsGzip(request)) {
+      response.setHeader("Content-Encoding", "gzip"); //$NON-NLS-1$ //$NON-NLS-2$
+      body = resource.gzipped;
+    }
+    response.setStatus(HttpServletResponse.SC_OK);
+    if (resource.contentType != null) {
+      response.setContentType(resource.contentType);
+    }
+    response.setContentLength(body.length);
+    if (!"HEAD".equals(request.getMethod())) { //$NON-NLS-1$
+      response.getOutputStream().write(body);
+    }
+  }
+
+  private boolean isNotModified(HttpServletRequest request, CachedResource resource) {
+    String ifNoneMatch = request.getHeader("If-None-Match"); //$NON-NLS-1$
+    if (ifNoneMatch != null) {
+      for (String etag : ifNoneMatch.split(",")) { //$NON-NLS-1$
+        etag = etag.trim();
+        if (etag.equals(resource.etag) || etag.equals("*")) { //$NON-NLS-1$
+          return true;
+        }
+      }
+      return false;
+    }
+    long ifModifiedSince;
+    try {
+      ifModifiedSince = request.getDateHeader("If-Modified-Since"); //$NON-NLS-1$
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+    // HTTP dates have a resolution of seconds
+    return ifModifiedSince >= 0 && resource.lastModified / 1000 <= ifModifiedSince / 1000;
+  }
+
+  private static boolean acceptsGzip(HttpServletRequest request) {
+    String acceptEncoding = request.getHeader("Accept-Encoding"); //$NON-NLS-1$
+    return acceptEncoding != null && acceptEncoding.toLowerCase().indexOf("gzip") >= 0; //$NON-NLS-1$
+  }
+
+  static boolean isCompressible(String contentType) {
+    if (contentType == null) {
+      return false;
+    }
+    String type = contentType.toLowerCase();
+    for (String compressible : COMPRESSIBLE_TYPES) {
+      if (type.startsWith(compressible)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  static CachedResource createResource(byte[] content, String contentType, long lastModified,
+      boolean variesOnLanguage) throws IOException {
+    String etag;
+    try {
+      etag = '"' + TypeUtil.toString(MessageDigest.getInstance("MD5").digest(content), 16) + '"'; //$NON-NLS-1$
+    } catch (Exception e) {
+      throw new IOException(e.getMessage());
+    }
+
+    byte[] gzipped = null;
+    if (content.length >= MIN_GZIP_SIZE && isCompressible(contentType)) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream(content.length / 3);
+      GZIPOutputStream gzip = new GZIPOutputStream(out);
+      gzip.write(content);
+      gzip.close();
+      if (out.size() < content.length) {
+        gzipped = out.toByteArray();
+      }
+    }
+    // round to seconds so If-Modified-Since compares equal
+    return new CachedResource(content, gzipped, contentType, etag, (lastModified / 1000) * 1000, variesOnLanguage);
+  }
+
+  /**
+   * A static resource as served by the webapp.
+   */
+  static class CachedResource {
+
+    final byte[] content;
+
+    final byte[] gzipped;
+
+    final String contentType;
+
+    final String etag;
+
+    final long lastModified;
+
+    final boolean variesOnLanguage;
+
+    CachedResource(byte[] content, byte[] gzipped, String contentType, String etag, long lastModified,
+        boolean variesOnLanguage) {
+      this.content = content;
+      this.gzipped = gzipped;
+      this.contentType = contentType;
+      this.etag = etag;
+      this.lastModified = lastModified;
+      this.variesOnLanguage = variesOnLanguage;
+    }
+
+    int getSize() {
+      return content.length;
+    }
+  }
+
+  /**
+   * Hides the Accept-Encoding and conditional headers from the webapp.
+   */
+  private static class UnconditionalRequest extends HttpServletRequestWrapper {
+
+    private static final String[] HIDDEN_HEADERS = { "Accept-Encoding", "If-None-Match", "If-Modified-Since", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        "If-Match", "If-Unmodified-Since", "Range", "If-Range" }; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+
+    UnconditionalRequest(HttpServletRequest request) {
+      super(request);
+    }
+
+    private boolean isHidden(String name) {
+      for (String hidden : HIDDEN_HEADERS) {
+        if (hidden.equalsIgnoreCase(name)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public String getHeader(String name) {
+      return isHidden(name) ? null : super.getHeader(name);
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public Enumeration getHeaders(String name) {
+      return isHidden(name) ? Collections.enumeration(Collections.emptyList()) : super.getHeaders(name);
+    }
+
+    @Override
+    public long getDateHeader(String name) {
+      return isHidden(name) ? -1 : super.getDateHeader(name);
+    }
+
+    @Override
+    public int getIntHeader(String name) {
+      return isHidden(name) ? -1 : super.getIntHeader(name);
+    }
+  }
+
+  /**
+   * Holds back the body written by the webapp, the status and headers go to the response as usual. Once the body
+   * grows past the entry limit it is passed on to the client as it is written.
+   */
+  private static class BufferingResponse extends HttpServletResponseWrapper {
+
+    private final int limit;
+
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+    private boolean passThrough;
+
+    private ServletOutputStream outputStream;
+
+    private PrintWriter writer;
+
+    BufferingResponse(HttpServletResponse response, int limit) {
+      super(response);
+      this.limit = limit;
+    }
+
+    /**
+     * @return the buffered response as a cache entry, or null if it can't be cached
+     */
+    CachedResource toCachedResource(Response response) throws IOException {
+      if (writer != null) {
+        writer.flush();
+      }
+      HttpFields fields = response.getHttpFields();
+      if (passThrough || response.isCommitted() || response.getStatus() != SC_OK
+          || fields.getStringField("Set-Cookie") != null) { //$NON-NLS-1$
+        return null;
+      }
+      boolean variesOnLanguage = false;
+      for (Enumeration<?> values = fields.getValues("Vary"); values.hasMoreElements();) { //$NON-NLS-1$
+        for (String header : values.nextElement().toString().split(",")) { //$NON-NLS-1$
+          header = header.trim();
+          if ("Accept-Language".equalsIgnoreCase(header)) { //$NON-NLS-1$
+            variesOnLanguage = true;
+          } else if (!"Accept-Encoding".equalsIgnoreCase(header)) { //$NON-NLS-1$
+            // depends on something not in the cache key
+            return null;
+          }
+        }
+      }
+      long lastModified = fields.getDateField("Last-Modified"); //$NON-NLS-1$
+      return createResource(buffer.toByteArray(), response.getContentType(),
+          lastModified >= 0 ? lastModified : System.currentTimeMillis(), variesOnLanguage);
+    }
+
+    /**
+     * Sends the body held back to the client.
+     */
+    void flushBody() throws IOException {
+      if (writer != null) {
+        writer.flush();
+      }
+      if (!passThrough && !getResponse().isCommitted()) {
+        getResponse().setContentLength(buffer.size());
+      }
+      startPassThrough();
+    }
+
+    private void startPassThrough() throws IOException {
+      if (passThrough) {
+        return;
+      }
+      passThrough = true;
+      if (buffer.size() > 0 && !getResponse().isCommitted()) {
+        buffer.writeTo(getResponse().getOutputStream());
+      }
+      buffer.reset();
+    }
+
+    private void write(byte[] b, int off, int len) throws IOException {
+      if (!passThrough && buffer.size() + len > limit) {
+        startPassThrough();
+      }
+      if (passThrough) {
+        getResponse().getOutputStream().write(b, off, len);
+      } else {
+        buffer.write(b, off, len);
+      }
+    }
+
+    @Override
+    public void setContentLength(int len) {
+      // only known once it is decided which body is sent
+      if (passThrough) {
+        super.setContentLength(len);
+      }
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+      // committing would keep the cached copy from being served
+      if (passThrough) {
+        super.flushBuffer();
+      }
+    }
+
+    @Override
+    public void resetBuffer() {
+      buffer.reset();
+      super.resetBuffer();
+    }
+
+    @Override
+    public void reset() {
+      buffer.reset();
+      super.reset();
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+      if (outputStream == null) {
+        outputStream = new ServletOutputStream() {
+          @Override
+          public void write(int b) throws IOException {
+            BufferingResponse.this.write(new byte[] { (byte) b }, 0, 1);
+          }
+
+          @Override
+          public void write(byte[] b, int off, int len) throws IOException {
+            BufferingResponse.this.write(b, off, len);
+          }
+        };
+      }
+      return outputStream;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+      if (writer == null) {
+        writer = new PrintWriter(new OutputStreamWriter(getOutputStream(), getCharacterEncoding()));
+      }
+      return writer;
+    }
+  }
+
+}
@@ -0,0 +1,58 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.platform;
+
+import org.mortbay.thread.QueuedThreadPool;
+
+/**
+ * Reports how busy the request thread pool of the embedded server is.
+ */
+public class ThreadPoolStatistics implements ThreadPoolStatisticsMBean {
+
+  private final QueuedThreadPool threadPool;
+
+  public ThreadPoolStatistics(QueuedThreadPool threadPool) {
+    this.threadPool = threadPool;
+  }
+
+  public int getThreads() {
+    return threadPool.getThreads();
+  }
+
+  public int getIdleThreads() {
+    return threadPool.getIdleThreads();
+  }
+
+  public int getBusyThreads() {
+    return Math.max(0, threadPool.getThreads() - threadPool.getIdleThreads());
+  }
+
+  public int getMaxThreads() {
+    return threadPool.getMaxThreads();
+  }
+
+  public double getSaturation() {
+    int max = threadPool.getMaxThreads();
+    return max <= 0 ? 0 : (double) getBusyThreads() / max;
+  }
+
+  public boolean isLowOnThreads() {
+    return threadPool.isLowOnThreads();
+  }
+
+}
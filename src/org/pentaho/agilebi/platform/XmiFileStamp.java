@@ -0,0 +1,55 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.platform;
+
+import java.io.File;
+
+/**
+ * The last modified time and length of a metadata (XMI) file when something was derived from it, so that derived
+ * state can be rebuilt once the file has changed.
+ */
+public class XmiFileStamp {
+
+  private final long lastModified;
+
+  private final long length;
+
+  public XmiFileStamp(File xmiFile) {
+    this.lastModified = xmiFile.lastModified();
+    this.length = xmiFile.length();
+  }
+
+  public long getLastModified() {
+    return lastModified;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof XmiFileStamp)) {
+      return false;
+    }
+    XmiFileStamp other = (XmiFileStamp) obj;
+    return lastModified == other.lastModified && length == other.length;
+  }
+
+  @Override
+  public int hashCode() {
+    return (int) (lastModified ^ (lastModified >>> 32)) * 31 + (int) (length ^ (length >>> 32));
+  }
+
+}
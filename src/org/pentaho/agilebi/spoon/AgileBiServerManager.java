@@ -0,0 +1,414 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.spoon;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.jface.dialogs.ProgressMonitorDialog;
+import org.eclipse.jface.operation.IRunnableWithProgress;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.Shell;
+import org.pentaho.agilebi.platform.JettyServer;
+import org.pentaho.agilebi.platform.JettyServerConfig;
+import org.pentaho.agilebi.platform.StartupProfiler;
+import org.pentaho.agilebi.spoon.perspective.AgileBiInstaPerspective;
+import org.pentaho.agilebi.spoon.perspective.AgileBiSpoonInstaPlugin;
+import org.pentaho.agilebi.spoon.perspective.AgileBiVisualizationPerspective;
+import org.pentaho.di.core.lifecycle.pdi.AgileBILifecycleListener;
+import org.pentaho.di.i18n.BaseMessages;
+import org.pentaho.di.ui.core.dialog.ErrorDialog;
+import org.pentaho.di.ui.spoon.Spoon;
+import org.pentaho.platform.api.engine.IPluginManager;
+import org.pentaho.platform.engine.core.system.PentahoSystem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Owns the embedded Agile BI server. Depending on the startup setting of server.properties the server is either
+ * started with Spoon or on the first action that needs it, in which case the action waits behind a progress dialog.
+ * When an idle timeout is configured, a server that hasn't served a request for that long and has no visualization
+ * or Instaview open is stopped again, to be restarted by the next action.
+ */
+public class AgileBiServerManager {
+
+  private static Class<?> PKG = AgileBiServerManager.class; // for i18n purposes, needed by Translator2!!   $NON-NLS-1$
+
+  private static Logger logger = LoggerFactory.getLogger(AgileBiServerManager.class);
+
+  private static final AgileBiServerManager instance = new AgileBiServerManager();
+
+  private static final long IDLE_CHECK_INTERVAL = 60000;
+
+  private final Object lock = new Object();
+
+  private volatile JettyServerConfig config;
+
+  private volatile JettyServer server;
+
+  /** the startup in progress, guarded by lock */
+  private FutureTask<JettyServer> startup;
+
+  /** the server the startup in progress created, guarded by lock */
+  private JettyServer launching;
+
+  /** guarded by lock */
+  private Timer idleTimer;
+
+  private AgileBiServerManager() {
+  }
+
+  AgileBiServerManager(JettyServerConfig config) {
+    this.config = config;
+  }
+
+  public static AgileBiServerManager getInstance() {
+    return instance;
+  }
+
+  public JettyServerConfig getConfig() {
+    if (config == null) {
+      synchronized (lock) {
+        if (config == null) {
+          config = JettyServerConfig.load();
+        }
+      }
+    }
+    return config;
+  }
+
+  public boolean isRunning() {
+    return server != null;
+  }
+
+  /**
+   * Starts the server, if it isn't running yet, and waits for the webapp to be up. Callers racing with a startup in
+   * progress wait for it to finish instead of starting another one.
+   *
+   * @throws Exception if the server can't be bound or started
+   */
+  public void start() throws Exception {
+    awaitStartup(false);
+  }
+
+  /**
+   * Waits for the server to be up, running the startup on the calling thread unless another thread already does.
+   * No lock is held while the server starts, so the UI can keep asking whether it is running.
+   *
+   * @param newProfile whether the startup is profiled on its own, rather than as part of the plugin startup
+   * @return true if the calling thread started the server
+   */
+  private boolean awaitStartup(final boolean newProfile) throws Exception {
+    if (server != null) {
+      return false;
+    }
+    FutureTask<JettyServer> task;
+    boolean owner = false;
+    synchronized (lock) {
+      if (server != null) {
+        return false;
+      }
+      if (startup == null) {
+        startup = new FutureTask<JettyServer>(new Callable<JettyServer>() {
+          public JettyServer call() throws Exception {
+            if (newProfile) {
+              StartupProfiler.getInstance().reset();
+            }
+            JettyServer created = createServer();
+            synchronized (lock) {
+              launching = created;
+            }
+            try {
+              launch(created);
+            } catch (Exception e) {
+              synchronized (lock) {
+                if (launching == created) {
+                  launching = null;
+                }
+              }
+              throw e;
+            }
+            synchronized (lock) {
+              if (launching != created) {
+                // given up on by stop(), which stops the server
+                throw new CancellationException();
+              }
+              launching = null;
+              server = created;
+              scheduleIdleShutdown();
+            }
+            return created;
+          }
+        });
+        owner = true;
+      }
+      task = startup;
+    }
+    if (owner) {
+      task.run();
+    }
+    try {
+      task.get();
+      return owner;
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof Exception) {
+        throw (Exception) e.getCause();
+      }
+      throw (Error) e.getCause();
+    } finally {
+      if (owner) {
+        synchronized (lock) {
+          startup = null;
+        }
+      }
+    }
+  }
+
+  JettyServer createServer() {
+    return new JettyServer("localhost", getConfig()); //$NON-NLS-1$
+  }
+
+  /**
+   * Binds and starts a new server.
+   */
+  void launch(JettyServer jettyServer) throws Exception {
+    StartupProfiler profiler = StartupProfiler.getInstance();
+    StartupProfiler.Phase phase = profiler.begin("server-bind"); //$NON-NLS-1$
+    try {
+      AgileBILifecycleListener.consolePort = jettyServer.bind();
+    } finally {
+      phase.end();
+    }
+    phase = profiler.begin("webapp-start"); //$NON-NLS-1$
+    try {
+      jettyServer.startServer();
+    } catch (Exception e) {
+      jettyServer.stopServer();
+      throw e;
+    } finally {
+      phase.end();
+    }
+
+    // Only initialize the Instaview perspective if the Instaview plugin is registered
+    phase = profiler.begin("instaview-init"); //$NON-NLS-1$
+    try {
+      if (AgileBiSpoonInstaPlugin.isInstaviewRegistered(PentahoSystem.get(IPluginManager.class))) {
+        AgileBiInstaPerspective.getInstance().onStart();
+      }
+    } finally {
+      phase.end();
+    }
+  }
+
+  /**
+   * Starts the server for an action that needs it and reports the startup phases, which the lifecycle listener
+   * only does for eager startups.
+   */
+  private void startOnDemand() throws Exception {
+    if (awaitStartup(true)) {
+      StartupProfiler.getInstance().report(getConfig().getStartupTraceFile());
+    }
+  }
+
+  /**
+   * Starts the server on a background thread without waiting for it.
+   */
+  public void startInBackground() {
+    if (isRunning()) {
+      return;
+    }
+    Thread startup = new Thread(new Runnable() {
+      public void run() {
+        try {
+          startOnDemand();
+        } catch (Exception e) {
+          logger.error("Error starting the Agile BI server", e); //$NON-NLS-1$
+        }
+      }
+    }, "agilebi-server-startup"); //$NON-NLS-1$
+    startup.start();
+  }
+
+  /**
+   * Makes sure the server is running before an action that needs it goes on. On the UI thread the startup runs
+   * behind a progress dialog and failures are reported to the user.
+   *
+   * @return true if the server is running, false if it could not be started
+   */
+  public boolean ensureStarted() {
+    if (isRunning()) {
+      return true;
+    }
+    if (Display.getCurrent() == null) {
+      try {
+        startOnDemand();
+        return true;
+      } catch (Exception e) {
+        logger.error("Error starting the Agile BI server", e); //$NON-NLS-1$
+        return false;
+      }
+    }
+
+    Shell shell = Spoon.getInstance().getShell();
+    try {
+      new ProgressMonitorDialog(shell).run(true, false, new IRunnableWithProgress() {
+        public void run(IProgressMonitor monitor) throws InvocationTargetException {
+          monitor.beginTask(BaseMessages.getString(PKG, "AgileBiServerManager.Starting"), IProgressMonitor.UNKNOWN); //$NON-NLS-1$
+          try {
+            startOnDemand();
+          } catch (Exception e) {
+            throw new InvocationTargetException(e);
+          } finally {
+            monitor.done();
+          }
+        }
+      });
+      return true;
+    } catch (InvocationTargetException e) {
+      logger.error("Error starting the Agile BI server", e.getCause()); //$NON-NLS-1$
+      new ErrorDialog(shell, BaseMessages.getString(PKG, "AgileBiServerManager.Error.Title"), //$NON-NLS-1$
+          BaseMessages.getString(PKG, "AgileBiServerManager.Error.Message"), e.getCause()); //$NON-NLS-1$
+      return false;
+    } catch (InterruptedException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Assigns a visualization to one of the server's session connectors, see server.sessionPools.
+   *
+   * @return the port the visualization should load its pages from
+   */
+  public int acquireSessionPort() {
+    JettyServer current = server;
+    return current == null ? AgileBILifecycleListener.consolePort : current.acquireSessionPort();
+  }
+
+  /**
+   * Releases a port returned by {@link #acquireSessionPort()} once its visualization is closed.
+   */
+  public void releaseSessionPort(int port) {
+    JettyServer current = server;
+    if (current != null) {
+      current.releaseSessionPort(port);
+    }
+  }
+
+  /**
+   * Stops the server if it is running. A startup in progress is waited for, for at most the shutdown timeout, so it
+   * doesn't leave a server behind. A startup that takes longer is cancelled and the server it created is stopped.
+   */
+  public void stop() {
+    FutureTask<JettyServer> pending;
+    synchronized (lock) {
+      pending = startup;
+    }
+    if (pending != null) {
+      try {
+        pending.get(getConfig().getShutdownTimeout(), TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (ExecutionException e) {
+        // a failed startup stops its own server
+      } catch (CancellationException e) {
+        // cancelled by another stop
+      } catch (TimeoutException e) {
+        logger.warn("The Agile BI server is still starting after " + getConfig().getShutdownTimeout() //$NON-NLS-1$
+            + " ms, stopping it"); //$NON-NLS-1$
+        pending.cancel(true);
+        JettyServer abandoned;
+        synchronized (lock) {
+          abandoned = launching;
+          launching = null;
+        }
+        if (abandoned != null) {
+          abandoned.stopServer();
+        }
+      }
+    }
+    stop(null);
+  }
+
+  /**
+   * Stops the server, if it is still the expected one.
+   *
+   * @param expected the server to stop, or null for whichever is running
+   */
+  private void stop(JettyServer expected) {
+    JettyServer current;
+    synchronized (lock) {
+      current = server;
+      if (current == null || (expected != null && current != expected)) {
+        return;
+      }
+      if (idleTimer != null) {
+        idleTimer.cancel();
+        idleTimer = null;
+      }
+      server = null;
+    }
+    current.stopServer();
+  }
+
+  private void scheduleIdleShutdown() {
+    final long idleTimeout = getConfig().getIdleShutdownMinutes() * 60000L;
+    if (idleTimeout <= 0) {
+      return;
+    }
+    idleTimer = new Timer("agilebi-idle-shutdown", true); //$NON-NLS-1$
+    idleTimer.schedule(new TimerTask() {
+      @Override
+      public void run() {
+        stopIfIdle(idleTimeout);
+      }
+    }, IDLE_CHECK_INTERVAL, IDLE_CHECK_INTERVAL);
+  }
+
+  private void stopIfIdle(long idleTimeout) {
+    JettyServer current = server;
+    if (current == null || System.currentTimeMillis() - current.getLastRequestTime() < idleTimeout
+        || hasOpenContent()) {
+      return;
+    }
+    logger.info("Stopping the Agile BI server after " + getConfig().getIdleShutdownMinutes() + " idle minutes"); //$NON-NLS-1$ //$NON-NLS-2$
+    // a request may have come in while the UI was checked
+    if (System.currentTimeMillis() - current.getLastRequestTime() >= idleTimeout) {
+      stop(current);
+    }
+  }
+
+  private boolean hasOpenContent() {
+    final boolean[] open = new boolean[1];
+    Display.getDefault().syncExec(new Runnable() {
+      public void run() {
+        open[0] = AgileBiVisualizationPerspective.getInstance().getTabCount() > 0
+            || AgileBiInstaPerspective.getInstance().isActive();
+      }
+    });
+    return open[0];
+  }
+
+}
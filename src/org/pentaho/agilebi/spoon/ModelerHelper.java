@@ -21,7 +21,10 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.widgets.Display;
@@ -32,6 +35,7 @@ import org.pentaho.agilebi.modeler.ModelerWorkspace;
 import org.pentaho.agilebi.modeler.util.ModelerWorkspaceUtil;
 import org.pentaho.agilebi.modeler.util.TableModelerSource;
 import org.pentaho.agilebi.spoon.perspective.AgileBiModelerPerspective;
+import org.pentaho.agilebi.spoon.registry.JournaledRegistry;
 import org.pentaho.agilebi.spoon.visualizations.IVisualization;
 import org.pentaho.agilebi.spoon.visualizations.VisualizationManager;
 import org.pentaho.agilebi.spoon.wizard.EmbeddedWizard;
@@ -71,9 +75,14 @@ import org.slf4j.LoggerFactory;
 public class ModelerHelper extends AbstractXulEventHandler implements ISpoonMenuController {
 
   private static final String MODELER_NAME = "Model Editor"; 
-  private static final String TEMP_MODELS_FOLDER = "models";
+  private static final String TEMP_MODELS_FOLDER = TemporaryArtifactManager.MODELS_FOLDER;
 
   private static ModelerHelper instance = null;
+
+  private final TemporaryModelAllocator temporaryModels;
+
+  // XMI of the copies made by clone that isn't written to their model file yet, by file name
+  private final Map<String, String> unsavedModels = new HashMap<String, String>();
     
   private static Logger logger = LoggerFactory.getLogger(ModelerHelper.class);
 
@@ -86,7 +95,7 @@ public class ModelerHelper extends AbstractXulEventHandler implements ISpoonMenu
       IMetadataRegistry registry = factory.getMetadataRegistry();
       if( registry == null ) {
           try {
-        	  registry = new OrderedFileRegistry();
+        	  registry = new JournaledRegistry();
         	  ((OrderedFileRegistry) registry).setFilePath(org.pentaho.di.core.Const.getKettleDirectory() + File.separator + "registry.xml"); //$NON-NLS-1$
 			factory.setMetadataRegistry(registry);
 			registry.init();
@@ -100,14 +109,11 @@ public class ModelerHelper extends AbstractXulEventHandler implements ISpoonMenu
       // someone else set this first, ignore this error
     }
   }
-  private ModelerHelper() {
+  ModelerHelper() {
+    // clears the models of earlier sessions before numbering starts
+    TemporaryArtifactManager.getInstance();
     File modelsDir = new File(TEMP_MODELS_FOLDER);
-    if(modelsDir.exists()) {
-      for(File file : modelsDir.listFiles()) {
-        file.delete();
-      }
-      modelsDir.delete();
-    }
+    temporaryModels = new TemporaryModelAllocator(modelsDir, "Model ", ".xmi"); //$NON-NLS-1$ //$NON-NLS-2$
   }
   
   public static synchronized ModelerHelper getInstance() {
@@ -578,22 +584,9 @@ public class ModelerHelper extends AbstractXulEventHandler implements ISpoonMenu
 
   public String createTemporaryModel(ModelerWorkspace model, boolean saveName, boolean autoModel) throws ModelerException {
     //give it a temporary name
-    File modelsDir = new File(TEMP_MODELS_FOLDER); //$NON-NLS-1$
-    modelsDir.mkdirs();
-    int idx = 1;
-    boolean looking = true;
-    File modelFile;
-    String fileName = ""; //$NON-NLS-1$
-    String modelName = ""; //$NON-NLS-1$
-    while( looking ) {
-      modelName = "Model "+idx; //$NON-NLS-1$
-      fileName = TEMP_MODELS_FOLDER + "/" + modelName+".xmi"; //$NON-NLS-1$ //$NON-NLS-2$
-      modelFile = new File(fileName);
-      if( !modelFile.exists() ) {
-        looking = false;
-      }
-      idx++;
-    }
+    File modelFile = TemporaryArtifactManager.getInstance().track(allocateTemporaryModel());
+    String modelName = temporaryModels.getModelName(modelFile);
+    String fileName = getTemporaryModelFileName(modelFile);
     if(saveName){
       model.setFileName(fileName);
     }
@@ -617,22 +610,79 @@ public class ModelerHelper extends AbstractXulEventHandler implements ISpoonMenu
     return fileName;
   }
   
+  /**
+   * Copies a workspace under a new temporary model name. The XMI of the workspace is generated once, under the
+   * temporary name, and the copy is loaded from it in memory. The XMI is kept until {@link #saveTemporaryModel} writes
+   * it to the copy's temporary model file. The source workspace keeps its name.
+   */
   public ModelerWorkspace clone(ModelerWorkspace model) throws ModelerException{
-    String fileName = createTemporaryModel(model, false, false);
-    
-    ModelerWorkspace newModel = createModelerWorkspace();
-    
-    newModel.setTemporary(true);
-    newModel.setDirty(false);
+    // only read by the tab the copy is opened in
+    File modelFile = TemporaryArtifactManager.getInstance().track(allocateTemporaryModel(), true);
+    String fileName = getTemporaryModelFileName(modelFile);
+
+    String sourceName = model.getModelName();
+    boolean sourceDirty = model.isDirty();
     String xml;
+    model.setModelName(temporaryModels.getModelName(modelFile));
+    try {
+      model.getWorkspaceHelper().populateDomain(model);
+      xml = ModelerWorkspaceUtil.getMetadataXML(model);
+    } finally {
+      // the source domain is populated again before it is saved or visualized
+      model.setModelName(sourceName);
+      model.setDirty(sourceDirty);
+    }
+
+    ModelerWorkspace newModel = createModelerWorkspace();
     try {
-      xml = new String(IOUtils.toByteArray(new FileInputStream(new File(fileName))), "UTF-8");
       ModelerWorkspaceUtil.loadWorkspace(fileName, xml, newModel);
     } catch (Exception e) {
       throw new ModelerException(e);
-    } //$NON-NLS-1$
+    }
+    newModel.setTemporary(true);
+    newModel.setDirty(false);
+    synchronized (unsavedModels) {
+      unsavedModels.put(fileName, xml);
+    }
     return newModel;
   }
+
+  /**
+   * Writes the XMI a copy made by {@link #clone} was loaded from to its temporary model file, for the visualizations
+   * reading the model from its path. Does nothing for a model that was already written.
+   *
+   * @return the file name of the model
+   */
+  public String saveTemporaryModel(ModelerWorkspace model) throws ModelerException {
+    String fileName = model.getFileName();
+    String xml;
+    synchronized (unsavedModels) {
+      xml = unsavedModels.remove(fileName);
+    }
+    if (xml != null) {
+      try {
+        FileUtils.writeStringToFile(new File(fileName), xml, "UTF-8"); //$NON-NLS-1$
+      } catch (IOException e) {
+        throw new ModelerException(e);
+      }
+    }
+    return fileName;
+  }
+
+  /**
+   * @return a new, empty temporary model file
+   */
+  private File allocateTemporaryModel() throws ModelerException {
+    try {
+      return temporaryModels.allocate();
+    } catch (IOException e) {
+      throw new ModelerException(e);
+    }
+  }
+
+  private String getTemporaryModelFileName(File modelFile) {
+    return TEMP_MODELS_FOLDER + "/" + modelFile.getName(); //$NON-NLS-1$
+  }
   
   public void databaseModelItem() {
     Spoon spoon = ((Spoon)SpoonFactory.getInstance());
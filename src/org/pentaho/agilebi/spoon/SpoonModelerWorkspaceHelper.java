@@ -19,6 +19,7 @@ package org.pentaho.agilebi.spoon;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
@@ -50,6 +51,10 @@ public class SpoonModelerWorkspaceHelper extends BaseModelerWorkspaceHelper impl
   final GeoContext geoContext;
   private static final String GEO_CONFIG_FILE_LOCATION = "plugins/spoon/agile-bi/geoRoles.properties"; //$NON-NLS-1$
 
+  private static Properties geoProperties;
+
+  private static long geoPropertiesModified;
+
   public SpoonModelerWorkspaceHelper() {
     this( initGeoContext() );
   }
@@ -201,10 +206,7 @@ public class SpoonModelerWorkspaceHelper extends BaseModelerWorkspaceHelper impl
   public static GeoContext initGeoContext() {
 
     try {
-      FileInputStream fis = new FileInputStream( new File( GEO_CONFIG_FILE_LOCATION ) );
-      Properties props = new Properties();
-      props.load( fis );
-      GeoContextPropertiesProvider config = new GeoContextPropertiesProvider( props );
+      GeoContextPropertiesProvider config = new GeoContextPropertiesProvider( loadGeoProperties() );
 
       return GeoContextFactory.create( config );
     } catch ( Exception e ) {
@@ -213,5 +215,25 @@ public class SpoonModelerWorkspaceHelper extends BaseModelerWorkspaceHelper impl
     return null;
   }
 
+  /**
+   * Reads the geo roles, reusing the last read as long as the file is unchanged.
+   */
+  private static synchronized Properties loadGeoProperties() throws IOException {
+    File file = new File( GEO_CONFIG_FILE_LOCATION );
+    long modified = file.lastModified();
+    if ( geoProperties == null || modified != geoPropertiesModified ) {
+      Properties props = new Properties();
+      FileInputStream fis = new FileInputStream( file );
+      try {
+        props.load( fis );
+      } finally {
+        fis.close();
+      }
+      geoProperties = props;
+      geoPropertiesModified = modified;
+    }
+    return (Properties) geoProperties.clone();
+  }
+
 }
 
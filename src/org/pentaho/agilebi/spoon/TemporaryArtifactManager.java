@@ -0,0 +1,299 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+
+package org.pentaho.agilebi.spoon;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.pentaho.agilebi.platform.AgileBiMetrics;
+import org.pentaho.agilebi.vfs.MondrianSchemaCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps track of the temporary files the plugin writes under Spoon's working directory: the XMI models in
+ * {@link #MODELS_FOLDER} and the copies of models, analyzer views and reports made in {@link #PUBLISH_FOLDER} for
+ * publishing. Each folder holds a manifest of the files the manager tracked there, so the leftovers of earlier
+ * sessions can be removed when the manager is created without touching files it didn't write.
+ *
+ * Open tabs reference the artifacts they read with {@link #acquire(File)} and give them back with
+ * {@link #release(File)} when they close. A disposable artifact is deleted as soon as its last reference is
+ * released. Unreferenced artifacts are evicted, least recently used first, once they are older than the maximum age
+ * or their total size exceeds the budget; eviction runs whenever an artifact is tracked or released. Referenced
+ * artifacts are never evicted.
+ */
+public class TemporaryArtifactManager implements TemporaryArtifactManagerMBean {
+
+  public static final String MODELS_FOLDER = "models"; //$NON-NLS-1$
+
+  public static final String PUBLISH_FOLDER = "tmp"; //$NON-NLS-1$
+
+  public static final String MANIFEST = ".artifacts"; //$NON-NLS-1$
+
+  public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+  public static final long DEFAULT_MAX_AGE = 4L * 60 * 60 * 1000;
+
+  private static Logger logger = LoggerFactory.getLogger(TemporaryArtifactManager.class);
+
+  private static TemporaryArtifactManager instance = null;
+
+  private final Map<File, Artifact> artifacts = new LinkedHashMap<File, Artifact>(16, 0.75f, true);
+
+  private final long maxBytes;
+
+  private final long maxAge;
+
+  private long evictions = 0;
+
+  public TemporaryArtifactManager(long maxBytes, long maxAge) {
+    this.maxBytes = maxBytes;
+    this.maxAge = maxAge;
+  }
+
+  public static synchronized TemporaryArtifactManager getInstance() {
+    if (instance == null) {
+      instance = new TemporaryArtifactManager(DEFAULT_MAX_BYTES, DEFAULT_MAX_AGE);
+      instance.purge(new File(MODELS_FOLDER));
+      instance.purge(new File(PUBLISH_FOLDER));
+      AgileBiMetrics.getInstance().register("Cache", "TemporaryArtifacts", instance); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+    return instance;
+  }
+
+  /**
+   * Starts tracking a temporary file. It stays until it is evicted, tabs may still reference it while it is
+   * tracked.
+   *
+   * @param file temporary file
+   * @return the file
+   */
+  public File track(File file) {
+    return track(file, false);
+  }
+
+  /**
+   * Starts tracking a temporary file.
+   *
+   * @param file       temporary file
+   * @param disposable true to delete the file as soon as the last tab referencing it is closed
+   * @return the file
+   */
+  public File track(File file, boolean disposable) {
+    synchronized (artifacts) {
+      Artifact artifact = artifacts.get(file.getAbsoluteFile());
+      if (artifact == null) {
+        artifact = new Artifact(file);
+        artifacts.put(artifact.file, artifact);
+        record(artifact.file);
+      }
+      artifact.disposable = disposable;
+      artifact.lastAccess = currentTimeMillis();
+      // the new artifact isn't referenced by its tab yet
+      evict(artifact);
+    }
+    return file;
+  }
+
+  /**
+   * References a tracked file for an open tab. Files that are not tracked are not temporary and are ignored.
+   *
+   * @param file file the tab reads
+   * @return true if the file is tracked
+   */
+  public boolean acquire(File file) {
+    synchronized (artifacts) {
+      Artifact artifact = artifacts.get(file.getAbsoluteFile());
+      if (artifact == null) {
+        return false;
+      }
+      artifact.references++;
+      artifact.lastAccess = currentTimeMillis();
+      return true;
+    }
+  }
+
+  /**
+   * Gives back a reference taken with {@link #acquire(File)}, deleting the file if it is disposable and no longer
+   * referenced. Other unreferenced artifacts are evicted if they no longer fit.
+   *
+   * @param file file the tab read
+   */
+  public void release(File file) {
+    synchronized (artifacts) {
+      Artifact artifact = artifacts.get(file.getAbsoluteFile());
+      if (artifact == null || artifact.references == 0) {
+        return;
+      }
+      artifact.references--;
+      artifact.lastAccess = currentTimeMillis();
+      if (artifact.references == 0 && artifact.disposable) {
+        artifacts.remove(artifact.file);
+        delete(artifact.file);
+      }
+      evict(null);
+    }
+  }
+
+  /**
+   * Deletes the unreferenced artifacts that are older than the maximum age, then the least recently used ones until
+   * the rest fit in the size budget.
+   */
+  public void evict() {
+    evict(null);
+  }
+
+  private void evict(Artifact keep) {
+    synchronized (artifacts) {
+      long now = currentTimeMillis();
+      long totalBytes = 0;
+      for (Iterator<Artifact> it = artifacts.values().iterator(); it.hasNext();) {
+        Artifact artifact = it.next();
+        if (artifact != keep && artifact.references == 0 && now - artifact.lastAccess > maxAge) {
+          it.remove();
+          delete(artifact.file);
+          evictions++;
+        } else {
+          totalBytes += artifact.file.length();
+        }
+      }
+      // iteration order is least recently used first
+      for (Iterator<Artifact> it = artifacts.values().iterator(); it.hasNext() && totalBytes > maxBytes;) {
+        Artifact artifact = it.next();
+        if (artifact != keep && artifact.references == 0) {
+          totalBytes -= artifact.file.length();
+          it.remove();
+          delete(artifact.file);
+          evictions++;
+        }
+      }
+    }
+  }
+
+  /**
+   * Deletes the files listed in the manifest of a temporary folder, then the manifest and the folder itself if
+   * nothing else is left in it.
+   *
+   * @param directory temporary folder
+   */
+  public void purge(File directory) {
+    File manifest = new File(directory, MANIFEST);
+    if (!manifest.exists()) {
+      return;
+    }
+    try {
+      for (String name : FileUtils.readLines(manifest, "UTF-8")) { //$NON-NLS-1$
+        // only plain file names, nothing outside the folder
+        if (name.length() > 0 && new File(name).getName().equals(name) && !"..".equals(name)) { //$NON-NLS-1$
+          delete(new File(directory, name));
+        }
+      }
+    } catch (IOException e) {
+      logger.warn("Could not read " + manifest, e); //$NON-NLS-1$
+      return;
+    }
+    delete(manifest);
+    // fails if the folder holds files we didn't write
+    directory.delete();
+  }
+
+  public boolean isTracked(File file) {
+    synchronized (artifacts) {
+      return artifacts.containsKey(file.getAbsoluteFile());
+    }
+  }
+
+  public int getEntryCount() {
+    synchronized (artifacts) {
+      return artifacts.size();
+    }
+  }
+
+  public int getReferencedCount() {
+    int referenced = 0;
+    synchronized (artifacts) {
+      for (Artifact artifact : artifacts.values()) {
+        if (artifact.references > 0) {
+          referenced++;
+        }
+      }
+    }
+    return referenced;
+  }
+
+  public long getTotalBytes() {
+    long totalBytes = 0;
+    synchronized (artifacts) {
+      for (Artifact artifact : artifacts.values()) {
+        totalBytes += artifact.file.length();
+      }
+    }
+    return totalBytes;
+  }
+
+  public long getEvictions() {
+    synchronized (artifacts) {
+      return evictions;
+    }
+  }
+
+  protected long currentTimeMillis() {
+    return System.currentTimeMillis();
+  }
+
+  /**
+   * Adds a file to the manifest of its folder, so a later session can clean it up should this one not.
+   */
+  private void record(File file) {
+    File manifest = new File(file.getParentFile(), MANIFEST);
+    try {
+      FileUtils.writeStringToFile(manifest, file.getName() + "\n", "UTF-8", true); //$NON-NLS-1$ //$NON-NLS-2$
+    } catch (IOException e) {
+      logger.warn("Could not record temporary file " + file, e); //$NON-NLS-1$
+    }
+  }
+
+  private void delete(File file) {
+    // a deleted model must not keep its generated schemas around
+    MondrianSchemaCache.getInstance().invalidate(file);
+    if (file.exists() && !file.delete()) {
+      logger.warn("Could not delete temporary file " + file); //$NON-NLS-1$
+    }
+  }
+
+  private static class Artifact {
+
+    final File file;
+
+    int references = 0;
+
+    boolean disposable = false;
+
+    long lastAccess;
+
+    Artifact(File file) {
+      this.file = file.getAbsoluteFile();
+    }
+  }
+
+}
@@ -0,0 +1,102 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+
+package org.pentaho.agilebi.spoon;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands out the names of temporary model files ("Model 1.xmi", "Model 2.xmi", ...) in a folder. The sequence is
+ * seeded once from the files already in the folder and only counts up, so a number is never handed out twice in a
+ * session and allocating a name doesn't have to probe the folder. Each file is created atomically when its name is
+ * allocated, which keeps concurrent callers from getting the same file.
+ */
+public class TemporaryModelAllocator {
+
+  private final File directory;
+
+  private final String prefix;
+
+  private final String extension;
+
+  private final AtomicInteger sequence = new AtomicInteger();
+
+  /**
+   * @param directory folder the temporary models are created in
+   * @param prefix    name of the models, followed by their number
+   * @param extension file extension, including the dot
+   */
+  public TemporaryModelAllocator(File directory, String prefix, String extension) {
+    this.directory = directory;
+    this.prefix = prefix;
+    this.extension = extension;
+    sequence.set(findHighestNumber());
+  }
+
+  /**
+   * Creates an empty file for the next temporary model.
+   *
+   * @return the new file
+   * @throws IOException if the file can't be created
+   */
+  public File allocate() throws IOException {
+    directory.mkdirs();
+    while (true) {
+      File file = getFile(sequence.incrementAndGet());
+      if (file.createNewFile()) {
+        return file;
+      }
+      // created outside of this allocator, move on to the next number
+    }
+  }
+
+  /**
+   * @param file a file created by {@link #allocate()}
+   * @return the model name of the file, its name without the extension
+   */
+  public String getModelName(File file) {
+    String name = file.getName();
+    return name.endsWith(extension) ? name.substring(0, name.length() - extension.length()) : name;
+  }
+
+  private File getFile(int number) {
+    return new File(directory, prefix + number + extension);
+  }
+
+  private int findHighestNumber() {
+    int highest = 0;
+    String[] names = directory.list();
+    if (names == null) {
+      return highest;
+    }
+    for (String name : names) {
+      if (!name.startsWith(prefix) || !name.endsWith(extension)) {
+        continue;
+      }
+      try {
+        highest = Math.max(highest, Integer.parseInt(name.substring(prefix.length(), name.length() - extension.length())));
+      } catch (NumberFormatException e) {
+        // not one of ours
+      }
+    }
+    return highest;
+  }
+
+}
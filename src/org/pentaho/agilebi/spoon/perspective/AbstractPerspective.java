@@ -349,5 +349,12 @@ public abstract class AbstractPerspective extends AbstractXulEventHandler implem
   public EngineMetaInterface getSelectedMeta(){
     return selectedMeta;
   }
+
+  /**
+   * @return the number of tabs open in this perspective
+   */
+  public int getTabCount(){
+    return tabs == null ? 0 : tabs.getChildNodes().size();
+  }
   
 }
@@ -28,6 +28,7 @@ import org.eclipse.swt.SWT;
 import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.Shell;
 import org.pentaho.agilebi.modeler.ModelerWorkspace;
+import org.pentaho.agilebi.spoon.AgileBiServerManager;
 import org.pentaho.di.core.EngineMetaInterface;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.lifecycle.pdi.AgileBILifecycleListener;
@@ -67,6 +68,8 @@ public class AgileBiInstaPerspective extends AbstractPerspective implements Spoo
   private SpoonPerspective lastPerspective;
   
   private final Display display;
+
+  private boolean active;
   
   public static AgileBiInstaPerspective getInstance(){
     return INSTANCE;
@@ -237,6 +240,10 @@ public class AgileBiInstaPerspective extends AbstractPerspective implements Spoo
     // If there are unsaved changes save them.
     Spoon spoonInstance = Spoon.getInstance();
     Shell shell = spoonInstance.getShell();
+    if (!AgileBiServerManager.getInstance().ensureStarted()) {
+      reactivateLastPerspective();
+      return;
+    }
     boolean savePendingChanges = false;
     if (hasUnsavedChanges()) {
       ShowMessageDialog msgDialog = new ShowMessageDialog(shell, SWT.ICON_WARNING | SWT.YES | SWT.NO | SWT.CANCEL, BaseMessages.getString(PKG, "Insta.UnsavedChanges.Warning.Title"), BaseMessages.getString(PKG, "Insta.UnsavedChanges.Warning.Message"), false); //$NON-NLS-1$ //$NON-NLS-2$
@@ -278,6 +285,7 @@ public class AgileBiInstaPerspective extends AbstractPerspective implements Spoo
 
     shell.setText("");
     spoonInstance.setMainToolbarVisible(false);
+    active = true;
     
   	// TODO - JD - enable this in Spoon
     //	Spoon.getInstance().setMenuBarVisible(false);
@@ -379,13 +387,21 @@ public class AgileBiInstaPerspective extends AbstractPerspective implements Spoo
 
   @Override
   public void onDeactication() {
-  
+    active = false;
+
   	Spoon.getInstance().setMainToolbarVisible(true);
   	// TODO - JD - enable this in Spoon
   //	Spoon.getInstance().setMenuBarVisible(true);
   	
   }
   
+  /**
+   * @return {@code true} while Instaview is the active perspective
+   */
+  public boolean isActive() {
+    return active;
+  }
+
   /**
    * Check for unsaved changes in the PDI or Model perspective
    * @return {@code true} if there are unsaved changes, {@code false} otherwise.
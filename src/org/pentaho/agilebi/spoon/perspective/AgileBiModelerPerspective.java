@@ -28,9 +28,11 @@ import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.FileDialog;
 import org.pentaho.agilebi.modeler.*;
 import org.pentaho.agilebi.modeler.util.ModelerWorkspaceUtil;
+import org.pentaho.agilebi.spoon.AgileBiServerManager;
 import org.pentaho.agilebi.spoon.ModelerEngineMeta;
 import org.pentaho.agilebi.spoon.SpoonModelerMessages;
 import org.pentaho.agilebi.spoon.SpoonModelerWorkspaceHelper;
+import org.pentaho.agilebi.spoon.TemporaryArtifactManager;
 import org.pentaho.agilebi.spoon.XulUI;
 import org.pentaho.di.core.EngineMetaInterface;
 import org.pentaho.di.core.exception.KettleException;
@@ -67,6 +69,7 @@ public class AgileBiModelerPerspective extends AbstractPerspective implements Sp
   private Logger logger = LoggerFactory.getLogger(AgileBiModelerPerspective.class);
   private static final AgileBiModelerPerspective INSTANCE = new AgileBiModelerPerspective();
   protected List<ModelerWorkspace> models = new ArrayList<ModelerWorkspace>();
+  private Map<ModelerWorkspace, File> modelFiles = new IdentityHashMap<ModelerWorkspace, File>();
   private XulMenuitem modelPropItem;
   
   private AgileBiModelerPerspectiveController perspectiveController = new AgileBiModelerPerspectiveController();
@@ -115,6 +118,9 @@ public class AgileBiModelerPerspective extends AbstractPerspective implements Sp
 
   public void createTabForModel(final ModelerWorkspace aModel, String name) throws ModelerException {
 
+    // a model is usually visualized next, get the server going while it is being edited
+    AgileBiServerManager.getInstance().startInBackground();
+
     try {
       SpoonPerspectiveManager.getInstance().activatePerspective(getClass());
       
@@ -137,6 +143,13 @@ public class AgileBiModelerPerspective extends AbstractPerspective implements Sp
       bind.setBindingType(Binding.Type.ONE_WAY);
       document.addBinding(bind);
       models.add(aModel);
+      if (aModel.getFileName() != null) {
+        // keeps a temporary model edited from a visualization around while its tab is open
+        File modelFile = new File(aModel.getFileName());
+        if (TemporaryArtifactManager.getInstance().acquire(modelFile)) {
+          modelFiles.put(aModel, modelFile);
+        }
+      }
     	model = aModel;
     	setSelectedMeta(xul.getMeta());
     	Spoon.getInstance().enableMenus();
@@ -286,7 +299,10 @@ public class AgileBiModelerPerspective extends AbstractPerspective implements Sp
    * @param pos Position of tab being closed
    */
   private void tabClosed(final int pos) {
-    models.remove(pos);
+    File modelFile = modelFiles.remove(models.remove(pos));
+    if (modelFile != null) {
+      TemporaryArtifactManager.getInstance().release(modelFile);
+    }
     metas.remove(tabbox.getTabs().getChildNodes().get(pos));
   }
 
@@ -33,12 +33,13 @@ import org.eclipse.swt.widgets.Composite;
 import org.pentaho.agilebi.modeler.ModelerException;
 import org.pentaho.agilebi.modeler.ModelerWorkspace;
 import org.pentaho.agilebi.modeler.util.ModelerWorkspaceUtil;
+import org.pentaho.agilebi.spoon.HasXulController;
 import org.pentaho.agilebi.spoon.ModelerEngineMeta;
 import org.pentaho.agilebi.spoon.SpoonModelerWorkspaceHelper;
 import org.pentaho.agilebi.spoon.XulUI;
 import org.pentaho.agilebi.spoon.visualizations.SaveAwareMeta;
 import org.pentaho.agilebi.spoon.visualizations.analyzer.AnalyzerVisualizationController;
-import org.pentaho.agilebi.spoon.visualizations.analyzer.AnalyzerVisualizationMeta;
+import org.pentaho.agilebi.spoon.visualizations.prpt.PRPTVisualizationController;
 import org.pentaho.di.core.EngineMetaInterface;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.gui.SpoonFactory;
@@ -50,6 +51,7 @@ import org.pentaho.ui.xul.XulOverlay;
 import org.pentaho.ui.xul.binding.Binding;
 import org.pentaho.ui.xul.binding.DefaultBinding;
 import org.pentaho.ui.xul.components.XulConfirmBox;
+import org.pentaho.ui.xul.components.XulTab;
 import org.pentaho.ui.xul.impl.XulEventHandler;
 import org.w3c.dom.Node;
 
@@ -209,9 +211,13 @@ public class AgileBiVisualizationPerspective extends AbstractPerspective {
   }
   
   public boolean onTabClose(final int pos) throws XulException{
-	  AnalyzerVisualizationController controller = (AnalyzerVisualizationController) ((AnalyzerVisualizationMeta)selectedMeta).getController();
-	  String contentId = PERSPECTIVE_ID+"\t"+controller.getVisFileLocation(); //$NON-NLS-1$
-	  
+    // the tab being closed isn't necessarily the selected one
+    XulTab tab = (XulTab) tabbox.getTabs().getChildNodes().get(pos);
+    EngineMetaInterface closedMeta = metas.get(tab);
+    XulEventHandler controller = closedMeta instanceof HasXulController ? ((HasXulController) closedMeta).getController() : null;
+    String contentId = PERSPECTIVE_ID+"\t"+(controller instanceof AnalyzerVisualizationController //$NON-NLS-1$
+        ? ((AnalyzerVisualizationController) controller).getVisFileLocation() : String.valueOf(controller));
+
 // TODO - JD - enable this in Spoon
 /*
 	  String caller = Spoon.getInstance().getCaller(contentId);
@@ -219,7 +225,7 @@ public class AgileBiVisualizationPerspective extends AbstractPerspective {
 		  contentId = PERSPECTIVE_ID+"\t"+controller.toString(); //$NON-NLS-1$
 	  }
 */	  
-    if(((SaveAwareMeta) this.getActiveMeta()).isDirty()){
+    if(closedMeta instanceof SaveAwareMeta && ((SaveAwareMeta) closedMeta).isDirty()){
       XulConfirmBox confirm = (XulConfirmBox) document.createElement("confirmbox"); //$NON-NLS-1$
       confirm.setTitle(BaseMessages.getString(this.getClass(), "Modeler.Perspective.unsavedChanges")); //$NON-NLS-1$
       confirm.setMessage(BaseMessages.getString(this.getClass(), "Visualization.Perspective.unsavedChangesMessage")); //$NON-NLS-1$
@@ -227,17 +233,23 @@ public class AgileBiVisualizationPerspective extends AbstractPerspective {
       CloseConfirmXulDialogCallback callback = new CloseConfirmXulDialogCallback();
       confirm.addDialogCallback(callback);
       confirm.open();
-      if(callback.closeIt){
-          switchToCaller(contentId);
-        return true;
-      } else {
+      if(!callback.closeIt){
         return false;
       }
-      
     }
+    dispose(controller);
+    metas.remove(tab);
     switchToCaller(contentId);
     return true;
   }
+
+  private void dispose(XulEventHandler controller) {
+    if (controller instanceof AnalyzerVisualizationController) {
+      ((AnalyzerVisualizationController) controller).dispose();
+    } else if (controller instanceof PRPTVisualizationController) {
+      ((PRPTVisualizationController) controller).dispose();
+    }
+  }
   
   
 
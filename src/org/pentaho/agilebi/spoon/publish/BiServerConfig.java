@@ -44,7 +44,7 @@ public class BiServerConfig {
    * Creates a BiServerConfig instance
    * @return
    */
-  public static BiServerConfig getInstance() {
+  public static synchronized BiServerConfig getInstance() {
     if( instance == null ) {
       instance = new BiServerConfig();
     }
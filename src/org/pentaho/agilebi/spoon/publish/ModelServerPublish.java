@@ -17,13 +17,15 @@
 
 package org.pentaho.agilebi.spoon.publish;
 
-import java.io.ByteArrayInputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -32,7 +34,6 @@ import javax.ws.rs.core.MediaType;
 
 import org.codehaus.jackson.map.ObjectMapper;
 import org.codehaus.jackson.type.TypeReference;
-import org.dom4j.DocumentHelper;
 import org.jfree.util.Log;
 import org.pentaho.agilebi.modeler.ModelerException;
 import org.pentaho.agilebi.modeler.ModelerPerspective;
@@ -85,6 +86,10 @@ public class ModelServerPublish {
 
   private static final String EXTENSION_XMI = ".xmi";
 
+  private static final String SCHEMA_ENCODING = "UTF-8";
+
+  private static final String SCHEMA_XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"" + SCHEMA_ENCODING + "\"?>\n";
+
   private static final String PLUGIN_DATA_ACCESS_API_CONNECTION_ADD = "plugin/data-access/api/connection/add";
 
   private static final String PLUGIN_DATA_ACCESS_API_CONNECTION_UPDATE = "plugin/data-access/api/connection/update";
@@ -760,36 +765,64 @@ public class ModelServerPublish {
     publishFile = new File(modelsDir, schemaName);
     publishFile.createNewFile();
 
-    LogicalModel lModel = this.model.getLogicalModel(ModelerPerspective.ANALYSIS);
-
-    MondrianModelExporter exporter = new MondrianModelExporter(lModel, LocalizedString.DEFAULT_LOCALE);
-    String mondrianSchema = exporter.createMondrianModelXML();
-
-    org.dom4j.Document schemaDoc = DocumentHelper.parseText(mondrianSchema);
-    byte schemaBytes[] = schemaDoc.asXML().getBytes();
+    String mondrianSchema = exportMondrianSchema();
 
     if (!publishFile.exists()) {
       throw new ModelerException("Schema file does not exist"); //$NON-NLS-1$
     }
 
-    //local file
-    OutputStream out = new FileOutputStream(publishFile);
-    out.write(schemaBytes);
-    out.flush();
-    out.close();
-    //file to send to Jcr Repository
-    InputStream schema = new ByteArrayInputStream(schemaBytes);
+    //local file, written straight from the exported schema so we don't hold extra copies of it in memory
+    Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(publishFile), SCHEMA_ENCODING));
+    try {
+      if (!hasXmlDeclaration(mondrianSchema)) {
+        // the server reads the encoding of the upload from the declaration
+        out.write(SCHEMA_XML_DECLARATION);
+      }
+      out.write(mondrianSchema);
+      out.flush();
+    } finally {
+      out.close();
+    }
+    mondrianSchema = null;
 
-    int result = publishMondrainSchema(schema, modelName, jndiName, overwriteInRepository);
+    //file to send to Jcr Repository, streamed from the local copy
+    int result = publishMondrianSchemaFile(publishFile, modelName, jndiName, overwriteInRepository);
     if (result != ModelServerPublish.PUBLISH_SUCCESS && result != ModelServerPublish.PUBLISH_CATALOG_EXISTS) {
       showFeedback(result);
       return result;
     }
-    result = handleModelOverwrite(jndiName, modelName, showFeedback, schemaDoc, result);
+    result = handleModelOverwrite(jndiName, modelName, showFeedback, publishFile, result);
 
     return result;
   }
 
+  /**
+   * @return the mondrian schema generated from the analysis model of the workspace
+   */
+  protected String exportMondrianSchema() throws Exception {
+    LogicalModel lModel = this.model.getLogicalModel(ModelerPerspective.ANALYSIS);
+    MondrianModelExporter exporter = new MondrianModelExporter(lModel, LocalizedString.DEFAULT_LOCALE);
+    return exporter.createMondrianModelXML();
+  }
+
+  private static boolean hasXmlDeclaration(String xml) {
+    int start = 0;
+    while (start < xml.length() && Character.isWhitespace(xml.charAt(start))) {
+      start++;
+    }
+    return xml.startsWith("<?xml", start); //$NON-NLS-1$
+  }
+
+  private int publishMondrianSchemaFile(File schemaFile, String modelName, String jndiName,
+      boolean overwriteInRepository) throws Exception {
+    InputStream schema = new BufferedInputStream(new FileInputStream(schemaFile));
+    try {
+      return publishMondrainSchema(schema, modelName, jndiName, overwriteInRepository);
+    } finally {
+      schema.close();
+    }
+  }
+
   /**
    * convert the publish name to an inputstream to pass to Jersey
    * @param publishModelFileName
@@ -804,14 +837,12 @@ public class ModelServerPublish {
   }
 
   private int handleModelOverwrite(String jndiName, String modelName, boolean showFeedback,
-      org.dom4j.Document schemaDoc, int result) throws Exception {
+      File schemaFile, int result) throws Exception {
     int response = result;
     if (showFeedback) {
       if (showFeedback(result)) {
         //Handle Overwrite the byte stream has already be read - need to re-read
-        byte schemaBytes2[] = schemaDoc.asXML().getBytes();
-        InputStream schema2 = new ByteArrayInputStream(schemaBytes2);
-        response = publishMondrainSchema(schema2, modelName, jndiName, true);
+        response = publishMondrianSchemaFile(schemaFile, modelName, jndiName, true);
         showFeedback(response);
       }
     }
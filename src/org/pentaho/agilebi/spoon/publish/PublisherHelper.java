@@ -34,6 +34,7 @@ import org.dom4j.io.XMLWriter;
 import org.jfree.util.Log;
 import org.pentaho.agilebi.modeler.ModelerException;
 import org.pentaho.agilebi.modeler.ModelerWorkspace;
+import org.pentaho.agilebi.spoon.TemporaryArtifactManager;
 import org.pentaho.agilebi.spoon.util.EncodingUtil;
 import org.pentaho.di.core.Const;
 import org.pentaho.di.core.database.DatabaseMeta;
@@ -300,7 +301,7 @@ public class PublisherHelper {
    */
   private static File createTempFile(String publishingFile, String tempFilename) throws IOException,
       FileNotFoundException {
-    File tempDir = new File("tmp");
+    File tempDir = new File(TemporaryArtifactManager.PUBLISH_FOLDER);
     if(tempDir.exists() == false){
       tempDir.mkdir();
     }
@@ -308,7 +309,7 @@ public class PublisherHelper {
     if(tempF.exists() == false){
       tempF.createNewFile();
     }
-    tempF.deleteOnExit();
+    TemporaryArtifactManager.getInstance().track(tempF);
     IOUtils.copy(new FileInputStream(new File(publishingFile)), new FileOutputStream(tempF));
     return tempF;
   }
@@ -399,7 +400,7 @@ public class PublisherHelper {
           thePmdDataFactory.setQuery("default", theQuery); //$NON-NLS-1$
 
           try {
-            File tempDir = new File("tmp");
+            File tempDir = new File(TemporaryArtifactManager.PUBLISH_FOLDER);
             if (tempDir.exists() == false) {
               tempDir.mkdir();
             }
@@ -407,7 +408,7 @@ public class PublisherHelper {
             if (tempF.exists() == false) {
               tempF.createNewFile();
             }
-            tempF.deleteOnExit();
+            TemporaryArtifactManager.getInstance().track(tempF);
             BundleWriter.writeReportToZipFile(report, tempF);
             publisher.publishPrptToServer(theXmiPublishingPath, thePrptPublishingPath, publishDatasource,
                 publishDialog.isExistentDatasource(), publishDialog.isPublishXmi(), xmiFile, tempF.getAbsolutePath());
@@ -20,6 +20,7 @@ package org.pentaho.agilebi.spoon.publish;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.widgets.Shell;
 import org.pentaho.agilebi.spoon.AbstractSwtXulDialogController;
+import org.pentaho.agilebi.spoon.AgileBiServerManager;
 import org.pentaho.di.core.Const;
 import org.pentaho.di.core.database.DatabaseMeta;
 import org.pentaho.di.core.gui.SpoonFactory;
@@ -60,8 +61,6 @@ public class XulDialogPublish extends AbstractSwtXulDialogController implements
 
   private static Logger logger = LoggerFactory.getLogger(XulDialogPublish.class);
   
-  private final IBiServerConfigUtil biServerConfigUtil = PentahoSystem.get(IBiServerConfigUtil.class);
-  
   private int folderTreeDepth = 99;
   
   private BindingFactory bf = new SwtBindingFactory();
@@ -501,7 +500,11 @@ public class XulDialogPublish extends AbstractSwtXulDialogController implements
   }
   
   public void testServerConnection(){
-    biServerConfigUtil.testServerConnection(this.biserverForm.getConnectionCopy());
+    // the config util is a bean of the embedded platform, which may not be running yet
+    if (!AgileBiServerManager.getInstance().ensureStarted()) {
+      return;
+    }
+    PentahoSystem.get(IBiServerConfigUtil.class).testServerConnection(this.biserverForm.getConnectionCopy());
   }
   
   public void biserverCancel(){
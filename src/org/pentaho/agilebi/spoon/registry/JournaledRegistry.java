@@ -0,0 +1,454 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+
+package org.pentaho.agilebi.spoon.registry;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.pentaho.metadata.registry.Entity;
+import org.pentaho.metadata.registry.Link;
+import org.pentaho.metadata.registry.Verb;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Lineage registry that appends each batch of additions to a journal next to registry.xml instead of rewriting the
+ * whole file. On start the registry is loaded from registry.xml and the journal is replayed on top of it. Once the
+ * journal would hold more than the compaction threshold of records, registry.xml is rewritten instead and the journal
+ * is emptied.
+ *
+ * Entities are indexed by type and id, and links by their subject and object, so lookups and link traversal don't
+ * scan the registry. The indexes refer to the entities and links the file registry holds, they don't copy them. Adding a link that is already registered does nothing, which also makes replaying a journal
+ * whose records already made it into registry.xml harmless.
+ */
+public class JournaledRegistry extends WriteBehindRegistry {
+
+  public static final String JOURNAL_EXTENSION = ".journal"; //$NON-NLS-1$
+
+  public static final String ENCODING = "UTF-8"; //$NON-NLS-1$
+
+  public static final int DEFAULT_COMPACTION_THRESHOLD = 1000;
+
+  private static final String ENTITY_RECORD = "E"; //$NON-NLS-1$
+
+  private static final String LINK_RECORD = "L"; //$NON-NLS-1$
+
+  private static final char SEPARATOR = '\t';
+
+  private static final Verb[] VERBS = { Verb.VERB_POPULATES, Verb.VERB_USES };
+
+  private static Logger logger = LoggerFactory.getLogger(JournaledRegistry.class);
+
+  private final int compactionThreshold;
+
+  // type id -> entity id -> entity
+  private Map<String, Map<String, Entity>> entitiesByType;
+
+  private Map<String, List<Link>> linksBySubject;
+
+  private Map<String, List<Link>> linksByObject;
+
+  private Set<String> linkKeys;
+
+  private List<String> pendingRecords;
+
+  private int journalRecords;
+
+  private boolean loading;
+
+  public JournaledRegistry() {
+    this(DEFAULT_FLUSH_DELAY, DEFAULT_COMPACTION_THRESHOLD);
+  }
+
+  /**
+   * @param flushDelay          how long, in milliseconds, additions are collected before they are written
+   * @param compactionThreshold number of journal records after which registry.xml is rewritten
+   */
+  public JournaledRegistry(long flushDelay, int compactionThreshold) {
+    super(flushDelay);
+    this.compactionThreshold = compactionThreshold;
+    clearIndexes();
+  }
+
+  /**
+   * Loads registry.xml and replays the journal on top of it.
+   */
+  @Override
+  public synchronized void init() {
+    loading = true;
+    try {
+      clearIndexes();
+      super.init();
+      // whether or not the file registry loads through addEntity and addLink
+      for (Entity entity : getEntities().values()) {
+        index(entity);
+      }
+      for (Link link : getLinks()) {
+        index(link);
+      }
+      journalRecords = replay(getJournalFile());
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    } finally {
+      loading = false;
+    }
+    // everything loaded is already on disk
+    setDirty(false);
+  }
+
+  @Override
+  public synchronized void addEntity(Entity entity) {
+    if (entitiesByType == null) {
+      // called while the registry is being constructed
+      super.addEntity(entity);
+      return;
+    }
+    index(entity);
+    super.addEntity(entity);
+    if (!loading) {
+      pendingRecords.add(toRecord(entity));
+    }
+  }
+
+  @Override
+  public synchronized void addLink(Link link) {
+    if (linkKeys == null) {
+      super.addLink(link);
+      return;
+    }
+    if (!index(link)) {
+      return;
+    }
+    super.addLink(link);
+    if (!loading) {
+      pendingRecords.add(toRecord(link));
+    }
+  }
+
+  @Override
+  public synchronized Entity getEntity(String id, String typeId) {
+    Map<String, Entity> ofType = entitiesByType == null ? null : entitiesByType.get(typeId);
+    Entity entity = ofType == null ? null : ofType.get(id);
+    return entity != null ? entity : super.getEntity(id, typeId);
+  }
+
+  /**
+   * @param typeId type of the entities
+   * @return the registered entities of the given type
+   */
+  public synchronized List<Entity> findEntitiesByType(String typeId) {
+    Map<String, Entity> ofType = entitiesByType.get(typeId);
+    return ofType == null ? Collections.<Entity> emptyList() : new ArrayList<Entity>(ofType.values());
+  }
+
+  /**
+   * @param id     id of the subject entity
+   * @param typeId type of the subject entity
+   * @return the links from the given entity
+   */
+  public synchronized List<Link> findLinksFrom(String id, String typeId) {
+    return find(linksBySubject, getKey(typeId, id));
+  }
+
+  /**
+   * @param id     id of the object entity
+   * @param typeId type of the object entity
+   * @return the links to the given entity
+   */
+  public synchronized List<Link> findLinksTo(String id, String typeId) {
+    return find(linksByObject, getKey(typeId, id));
+  }
+
+  /**
+   * @return the number of records in the journal that registry.xml doesn't hold yet
+   */
+  public synchronized int getJournalRecords() {
+    return journalRecords;
+  }
+
+  /**
+   * Rewrites registry.xml with everything registered and empties the journal.
+   *
+   * @throws Exception if the registry can't be written, the journal is kept
+   */
+  public void compact() throws Exception {
+    write(true);
+  }
+
+  /**
+   * Appends the additions to the journal, or compacts once the journal would hold more than the compaction threshold
+   * of records.
+   */
+  @Override
+  protected PendingWrite preparePending() {
+    if (journalRecords + pendingRecords.size() > compactionThreshold) {
+      return prepareSnapshot();
+    }
+    final List<String> records = takePendingRecords();
+    return new PendingWrite() {
+      @Override
+      protected void run() throws Exception {
+        append(records);
+        synchronized (JournaledRegistry.this) {
+          journalRecords += records.size();
+        }
+      }
+
+      @Override
+      protected void failed() {
+        pendingRecords.addAll(0, records);
+      }
+    };
+  }
+
+  @Override
+  protected PendingWrite prepareSnapshot() {
+    final PendingWrite snapshot = super.prepareSnapshot();
+    // the snapshot holds the pending additions
+    final List<String> records = takePendingRecords();
+    return new PendingWrite() {
+      @Override
+      protected void run() throws Exception {
+        snapshot.run();
+        File journal = getJournalFile();
+        if (journal.exists() && !journal.delete()) {
+          throw new IOException("Could not delete " + journal); //$NON-NLS-1$
+        }
+        synchronized (JournaledRegistry.this) {
+          journalRecords = 0;
+        }
+      }
+
+      @Override
+      protected void failed() {
+        pendingRecords.addAll(0, records);
+      }
+    };
+  }
+
+  protected File getJournalFile() {
+    return new File(getRegistryFile().getPath() + JOURNAL_EXTENSION);
+  }
+
+  private List<String> takePendingRecords() {
+    List<String> records = pendingRecords;
+    pendingRecords = new ArrayList<String>();
+    return records;
+  }
+
+  private void append(List<String> records) throws IOException {
+    if (records.isEmpty()) {
+      return;
+    }
+    FileOutputStream out = new FileOutputStream(getJournalFile(), true);
+    try {
+      Writer writer = new OutputStreamWriter(out, ENCODING);
+      for (String record : records) {
+        writer.write(record);
+        writer.write('\n');
+      }
+      writer.flush();
+      out.getFD().sync();
+    } finally {
+      out.close();
+    }
+  }
+
+  private int replay(File journal) throws IOException {
+    if (!journal.exists()) {
+      return 0;
+    }
+    int records = 0;
+    BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journal), ENCODING));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (replay(line)) {
+          records++;
+        } else {
+          // a record cut short by a crash during an append
+          logger.warn("Skipping malformed registry journal record: " + line); //$NON-NLS-1$
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    return records;
+  }
+
+  private boolean replay(String record) {
+    List<String> fields = split(record);
+    if (fields.size() == 4 && ENTITY_RECORD.equals(fields.get(0))) {
+      addEntity(new Entity(fields.get(2), fields.get(3), fields.get(1)));
+      return true;
+    }
+    if (fields.size() == 6 && LINK_RECORD.equals(fields.get(0))) {
+      Verb verb = getVerb(fields.get(3));
+      Entity subject = getOrCreateEntity(fields.get(2), fields.get(1));
+      Entity object = getOrCreateEntity(fields.get(5), fields.get(4));
+      if (verb == null) {
+        return false;
+      }
+      addLink(new Link(subject, verb, object));
+      return true;
+    }
+    return false;
+  }
+
+  private Entity getOrCreateEntity(String id, String typeId) {
+    Entity entity = getEntity(id, typeId);
+    return entity != null ? entity : new Entity(id, id, typeId);
+  }
+
+  private void index(Entity entity) {
+    Map<String, Entity> ofType = entitiesByType.get(entity.getTypeId());
+    if (ofType == null) {
+      ofType = new LinkedHashMap<String, Entity>();
+      entitiesByType.put(entity.getTypeId(), ofType);
+    }
+    ofType.put(entity.getId(), entity);
+  }
+
+  /**
+   * @return false if the link is already indexed
+   */
+  private boolean index(Link link) {
+    if (!linkKeys.add(getLinkKey(link))) {
+      return false;
+    }
+    index(linksBySubject, getKey(link.getSubjectTypeId(), link.getSubjectId()), link);
+    index(linksByObject, getKey(link.getObjectTypeId(), link.getObjectId()), link);
+    return true;
+  }
+
+  private void clearIndexes() {
+    entitiesByType = new HashMap<String, Map<String, Entity>>();
+    linksBySubject = new HashMap<String, List<Link>>();
+    linksByObject = new HashMap<String, List<Link>>();
+    linkKeys = new HashSet<String>();
+    pendingRecords = new ArrayList<String>();
+  }
+
+  private static void index(Map<String, List<Link>> index, String key, Link link) {
+    List<Link> links = index.get(key);
+    if (links == null) {
+      links = new ArrayList<Link>();
+      index.put(key, links);
+    }
+    links.add(link);
+  }
+
+  private static List<Link> find(Map<String, List<Link>> index, String key) {
+    List<Link> links = index.get(key);
+    return links == null ? Collections.<Link> emptyList() : new ArrayList<Link>(links);
+  }
+
+  private static Verb getVerb(String id) {
+    for (Verb verb : VERBS) {
+      if (verb.getId().equals(id)) {
+        return verb;
+      }
+    }
+    return null;
+  }
+
+  private static String getKey(String typeId, String id) {
+    return typeId + SEPARATOR + id;
+  }
+
+  private static String getLinkKey(Link link) {
+    return join(link.getSubjectTypeId(), link.getSubjectId(), link.getVerbId(), link.getObjectTypeId(),
+        link.getObjectId());
+  }
+
+  static String toRecord(Entity entity) {
+    return join(ENTITY_RECORD, entity.getTypeId(), entity.getId(), entity.getTitle());
+  }
+
+  static String toRecord(Link link) {
+    return join(LINK_RECORD, link.getSubjectTypeId(), link.getSubjectId(), link.getVerbId(),
+        link.getObjectTypeId(), link.getObjectId());
+  }
+
+  static String join(String... fields) {
+    StringBuilder record = new StringBuilder();
+    for (int i = 0; i < fields.length; i++) {
+      if (i > 0) {
+        record.append(SEPARATOR);
+      }
+      String field = fields[i] == null ? "" : fields[i]; //$NON-NLS-1$
+      for (int j = 0; j < field.length(); j++) {
+        char c = field.charAt(j);
+        switch (c) {
+          case '\\':
+            record.append("\\\\"); //$NON-NLS-1$
+            break;
+          case '\t':
+            record.append("\\t"); //$NON-NLS-1$
+            break;
+          case '\n':
+            record.append("\\n"); //$NON-NLS-1$
+            break;
+          case '\r':
+            record.append("\\r"); //$NON-NLS-1$
+            break;
+          default:
+            record.append(c);
+        }
+      }
+    }
+    return record.toString();
+  }
+
+  static List<String> split(String record) {
+    List<String> fields = new ArrayList<String>();
+    StringBuilder field = new StringBuilder();
+    for (int i = 0; i < record.length(); i++) {
+      char c = record.charAt(i);
+      if (c == SEPARATOR) {
+        fields.add(field.toString());
+        field.setLength(0);
+      } else if (c == '\\' && i + 1 < record.length()) {
+        char escaped = record.charAt(++i);
+        field.append(escaped == 't' ? '\t' : escaped == 'n' ? '\n' : escaped == 'r' ? '\r' : escaped);
+      } else {
+        field.append(c);
+      }
+    }
+    fields.add(field.toString());
+    return fields;
+  }
+
+}
@@ -0,0 +1,243 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+
+package org.pentaho.agilebi.spoon.registry;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.pentaho.metadata.registry.Entity;
+import org.pentaho.metadata.registry.Link;
+import org.pentaho.metadata.registry.OrderedFileRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Lineage registry that writes registry.xml behind the callers' backs. {@link #commit()} only schedules a write, so
+ * additions made within the flush delay of each other are written together, on a background thread instead of the
+ * thread that modeled or saved (often the UI thread). The registry is only locked while the additions are collected,
+ * not while the file is written. The file is written next to the registry and renamed over it, so a crash during a
+ * write leaves the previous registry in place. {@link #close()} writes pending additions and is
+ * called when Spoon exits.
+ */
+public class WriteBehindRegistry extends OrderedFileRegistry {
+
+  public static final long DEFAULT_FLUSH_DELAY = 2000;
+
+  private static Logger logger = LoggerFactory.getLogger(WriteBehindRegistry.class);
+
+  private final long flushDelay;
+
+  private String filePath;
+
+  // held while the file is written, so writes happen in the order they are collected in
+  private final Object writeLock = new Object();
+
+  private Timer timer;
+
+  private boolean dirty;
+
+  private boolean scheduled;
+
+  public WriteBehindRegistry() {
+    this(DEFAULT_FLUSH_DELAY);
+  }
+
+  /**
+   * @param flushDelay how long, in milliseconds, additions are collected before they are written
+   */
+  public WriteBehindRegistry(long flushDelay) {
+    this.flushDelay = flushDelay;
+  }
+
+  @Override
+  public synchronized void setFilePath(String filePath) {
+    this.filePath = filePath;
+    super.setFilePath(filePath);
+  }
+
+  @Override
+  public synchronized void addEntity(Entity entity) {
+    super.addEntity(entity);
+    dirty = true;
+  }
+
+  @Override
+  public synchronized void addLink(Link link) {
+    super.addLink(link);
+    dirty = true;
+  }
+
+  @Override
+  public synchronized Entity getEntity(String id, String typeId) {
+    return super.getEntity(id, typeId);
+  }
+
+  /**
+   * Schedules the pending additions to be written after the flush delay.
+   */
+  @Override
+  public synchronized void commit() {
+    if (!dirty || scheduled) {
+      return;
+    }
+    if (timer == null) {
+      timer = new Timer("agilebi-registry-flush", true); //$NON-NLS-1$
+    }
+    scheduled = true;
+    timer.schedule(new TimerTask() {
+      @Override
+      public void run() {
+        try {
+          flush();
+        } catch (Exception e) {
+          logger.error("Could not write metadata registry", e); //$NON-NLS-1$
+        }
+      }
+    }, flushDelay);
+  }
+
+  /**
+   * Writes the pending additions now.
+   *
+   * @throws Exception if the registry can't be written, the additions stay pending
+   */
+  public void flush() throws Exception {
+    write(false);
+  }
+
+  /**
+   * Writes the pending additions, or the whole registry. What to write is collected with the registry locked, the
+   * file is written without holding the lock so additions and lookups aren't held up by it.
+   *
+   * @param snapshot true to rewrite the whole registry file even if nothing is pending
+   * @throws Exception if the registry can't be written, the additions stay pending
+   */
+  protected void write(boolean snapshot) throws Exception {
+    synchronized (writeLock) {
+      PendingWrite write;
+      synchronized (this) {
+        scheduled = false;
+        if (!dirty && !snapshot) {
+          return;
+        }
+        write = snapshot ? prepareSnapshot() : preparePending();
+        dirty = false;
+      }
+      try {
+        write.run();
+      } catch (Exception e) {
+        synchronized (this) {
+          write.failed();
+          dirty = true;
+        }
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Collects the additions made since the last write, called with the registry locked.
+   */
+  protected PendingWrite preparePending() {
+    return prepareSnapshot();
+  }
+
+  /**
+   * Copies the registry for a rewrite of the whole file, called with the registry locked. The file is written next to
+   * the registry and renamed over it, so a failed write leaves the previous file in place.
+   */
+  protected PendingWrite prepareSnapshot() {
+    final File target = getRegistryFile();
+    final File temp = new File(target.getPath() + ".tmp"); //$NON-NLS-1$
+    final OrderedFileRegistry snapshot = new OrderedFileRegistry();
+    snapshot.setFilePath(temp.getPath());
+    for (Entity entity : getEntities().values()) {
+      snapshot.addEntity(entity);
+    }
+    for (Link link : getLinks()) {
+      snapshot.addLink(link);
+    }
+    return new PendingWrite() {
+      @Override
+      protected void run() throws Exception {
+        snapshot.commit();
+        replace(temp, target);
+      }
+    };
+  }
+
+  protected File getRegistryFile() {
+    return new File(filePath);
+  }
+
+  /**
+   * Writes the pending additions and stops the background writer.
+   */
+  public void close() {
+    synchronized (this) {
+      if (timer != null) {
+        timer.cancel();
+        timer = null;
+      }
+    }
+    try {
+      flush();
+    } catch (Exception e) {
+      logger.error("Could not write metadata registry", e); //$NON-NLS-1$
+    }
+  }
+
+  /**
+   * @return true if additions are waiting to be written
+   */
+  public synchronized boolean isDirty() {
+    return dirty;
+  }
+
+  protected synchronized void setDirty(boolean dirty) {
+    this.dirty = dirty;
+  }
+
+  /**
+   * A write collected with the registry locked, run without the lock.
+   */
+  protected abstract static class PendingWrite {
+
+    protected abstract void run() throws Exception;
+
+    /**
+     * Puts back what the write took, called with the registry locked.
+     */
+    protected void failed() {
+    }
+  }
+
+  private static void replace(File source, File target) throws IOException {
+    if (source.renameTo(target)) {
+      return;
+    }
+    // renaming over an existing file fails on some platforms
+    if (!target.delete() || !source.renameTo(target)) {
+      throw new IOException("Could not replace " + target + " with " + source); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+  }
+
+}
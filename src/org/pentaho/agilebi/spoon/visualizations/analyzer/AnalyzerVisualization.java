@@ -35,6 +35,7 @@ import org.pentaho.agilebi.modeler.IModelerSource;
 import org.pentaho.agilebi.modeler.ModelerPerspective;
 import org.pentaho.agilebi.modeler.ModelerWorkspace;
 import org.pentaho.agilebi.modeler.util.ModelerSourceFactory;
+import org.pentaho.agilebi.spoon.AgileBiServerManager;
 import org.pentaho.agilebi.spoon.ModelerHelper;
 import org.pentaho.agilebi.spoon.PDIMessages;
 import org.pentaho.agilebi.spoon.SpoonModelerWorkspaceHelper;
@@ -137,8 +138,17 @@ public class AnalyzerVisualization extends AbstractVisualization {
     return generateSaveJavascript(filename, true, true,false);
   }
 
+  public String generateSaveJavascript(String filename, int port) {
+    return generateSaveJavascript(filename, true, true, false, port);
+  }
+
   public String generateSaveJavascript(String filename, boolean encodePath, boolean encodeFileName,
                                        boolean encodePort) {
+    return generateSaveJavascript(filename, encodePath, encodeFileName, encodePort, AgileBILifecycleListener.consolePort);
+  }
+
+  public String generateSaveJavascript(String filename, boolean encodePath, boolean encodeFileName,
+                                       boolean encodePort, int port) {
     // path, filename.
     // be sure to escape single quotes and backslashes to avoid javascript eval issues
     String pathAndFilename[] = getPathAndFilename(filename);
@@ -148,18 +158,22 @@ public class AnalyzerVisualization extends AbstractVisualization {
     str = replaceField(str, "filename",
       pathAndFilename[1].replace( "\\", "\\\\" ).replace( "'", "\\'" ), false);
 
-    str = replaceField(str, "port", ""+AgileBILifecycleListener.consolePort, encodePort); //$NON-NLS-1$
+    str = replaceField(str, "port", ""+port, encodePort); //$NON-NLS-1$
     return str;
   }
 
   
 	public String generateOpenUrl(String filename) {
+	  return generateOpenUrl(filename, AgileBILifecycleListener.consolePort);
+	}
+
+	public String generateOpenUrl(String filename, int port) {
 	  // path, filename
     String str = replaceField(openUrl, "path", convertPathToRepoUrlFormat(filename), true);
     Date now = new Date();
     String ts = Long.toString(now.getTime());
     str = replaceField(str, "timestamp", ts, false);
-	  str = replaceField(str, "port", ""+AgileBILifecycleListener.consolePort, false); //$NON-NLS-1$
+	  str = replaceField(str, "port", ""+port, false); //$NON-NLS-1$
 	  return str;
 	}
 	
@@ -183,11 +197,15 @@ public class AnalyzerVisualization extends AbstractVisualization {
 	}
 	
 	public String generateNewUrl(String fileLocation, String modelId) {
+	  return generateNewUrl(fileLocation, modelId, AgileBILifecycleListener.consolePort);
+	}
+
+	public String generateNewUrl(String fileLocation, String modelId, int port) {
     String str = replaceField(newUrl, "modelLocation",
       fileLocation, true); //$NON-NLS-1$
 
     str = replaceField(str, "modelId", modelId, true); //$NON-NLS-1$
-	  str = replaceField(str, "port", ""+AgileBILifecycleListener.consolePort, false); //$NON-NLS-1$
+	  str = replaceField(str, "port", ""+port, false); //$NON-NLS-1$
 
     // the rnd param is to make sure that the browser does not display a cached version of the requested report
     long avoidBrowserCache = Calendar.getInstance().getTimeInMillis();
@@ -196,15 +214,23 @@ public class AnalyzerVisualization extends AbstractVisualization {
 	}
 	
 	public String generateRefreshDataJavascript(String fileLocation, String modelId) { 
+	  return generateRefreshDataJavascript(fileLocation, modelId, AgileBILifecycleListener.consolePort);
+	}
+
+	public String generateRefreshDataJavascript(String fileLocation, String modelId, int port) { 
     String str = replaceField(refreshDataJavascript, "modelLocation", fileLocation, true); //$NON-NLS-1$
     str = replaceField(str, "modelId", modelId, true); //$NON-NLS-1$
-	  str = replaceField(str, "port", ""+AgileBILifecycleListener.consolePort, false); //$NON-NLS-1$
+	  str = replaceField(str, "port", ""+port, false); //$NON-NLS-1$
     return str;
 	}
 	
 	public String generateRefreshModelJavascript(String fileLocation, String modelId) {
+	  return generateRefreshModelJavascript(fileLocation, modelId, AgileBILifecycleListener.consolePort);
+	}
+
+	public String generateRefreshModelJavascript(String fileLocation, String modelId, int port) {
     String str = refreshModelJavascript.replaceAll( "tmpview", reportName ); //$NON-NLS-1$
-    str = replaceField( str, "port", "" + AgileBILifecycleListener.consolePort, false ); //$NON-NLS-1$
+    str = replaceField( str, "port", "" + port, false ); //$NON-NLS-1$
 
     // We are saving this temp file to the file system, not the repo so do not encode
     String folder = new File( "" ).getAbsolutePath();
@@ -219,11 +245,16 @@ public class AnalyzerVisualization extends AbstractVisualization {
 	}
 	
 	public void createVisualizationFromModel(ModelerWorkspace model, boolean tempModel) {
+    if (!AgileBiServerManager.getInstance().ensureStarted()) {
+      return;
+    }
 		Spoon spoon = ((Spoon)SpoonFactory.getInstance());
     try {
       if(tempModel){
         ModelerHelper theHelper = ModelerHelper.getInstance();
         model = theHelper.clone(model);
+        // the model is read from its file
+        theHelper.saveTemporaryModel(model);
       }
       
     	SwtXulLoader theXulLoader = new SwtXulLoader();
@@ -327,6 +358,9 @@ public class AnalyzerVisualization extends AbstractVisualization {
 	  }
 
   public boolean open(Node transNode, String fname, boolean importfile) {
+    if (!AgileBiServerManager.getInstance().ensureStarted()) {
+      return false;
+    }
     Spoon spoon = ((Spoon)SpoonFactory.getInstance());
     try {
       File f = new File( fname );
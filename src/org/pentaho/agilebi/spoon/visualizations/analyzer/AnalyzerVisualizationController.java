@@ -26,7 +26,9 @@ import org.eclipse.swt.SWTError;
 import org.eclipse.swt.widgets.Composite;
 import org.pentaho.agilebi.modeler.ModelerException;
 import org.pentaho.agilebi.modeler.ModelerWorkspace;
+import org.pentaho.agilebi.spoon.AgileBiServerManager;
 import org.pentaho.agilebi.spoon.ModelerHelper;
+import org.pentaho.agilebi.spoon.TemporaryArtifactManager;
 import org.pentaho.agilebi.spoon.perspective.AgileBiModelerPerspective;
 import org.pentaho.agilebi.spoon.publish.PublisherHelper;
 import org.pentaho.agilebi.spoon.visualizations.AbstractVisualization;
@@ -79,6 +81,9 @@ public class AnalyzerVisualizationController extends AbstractXulEventHandler imp
 	private XulEditpanel propPanel;
 	private ModelerWorkspace workspace;
 	private boolean dirty = true;
+	private int port;
+
+	private boolean disposed;
 
 	private static Logger logger = LoggerFactory.getLogger(AnalyzerVisualizationController.class);
 	private String fileName;
@@ -90,7 +95,11 @@ public class AnalyzerVisualizationController extends AbstractXulEventHandler imp
 		this.visFileLocation = aVisFileLocaiton;
 		this.meta = new AnalyzerVisualizationMeta(this);
 		this.spoon = ((Spoon) SpoonFactory.getInstance());
-		this.location = visualization.generateNewUrl(xmiFileLocation, modelId);
+		this.port = AgileBiServerManager.getInstance().acquireSessionPort();
+		if (xmiFileLocation != null) {
+		  TemporaryArtifactManager.getInstance().acquire(new File(xmiFileLocation));
+		}
+		this.location = visualization.generateNewUrl(xmiFileLocation, modelId, port);
 		this.bf = new DefaultBindingFactory();
 		this.fileName = fileName;
 	}
@@ -115,7 +124,7 @@ public class AnalyzerVisualizationController extends AbstractXulEventHandler imp
 	}
 	
 	public void openReport(String aReport) {
-	  String theLocation = visualization.generateOpenUrl( aReport );
+	  String theLocation = visualization.generateOpenUrl( aReport, port );
 	  this.browser.setSrc(theLocation);
 	}
 
@@ -154,6 +163,21 @@ public class AnalyzerVisualizationController extends AbstractXulEventHandler imp
 		this.factTableName = aFactTableName;
 	}
 
+	/**
+	 * Gives the port this visualization was assigned back to the server and releases its model file, called when its
+	 * tab is closed.
+	 */
+	public void dispose() {
+	  if (disposed) {
+	    return;
+	  }
+	  disposed = true;
+	  AgileBiServerManager.getInstance().releaseSessionPort(port);
+	  if (xmiFileLocation != null) {
+	    TemporaryArtifactManager.getInstance().release(new File(xmiFileLocation));
+	  }
+	}
+
 	public AnalyzerVisualization getVisualization() {
 		return visualization;
 	}
@@ -164,7 +188,7 @@ public class AnalyzerVisualizationController extends AbstractXulEventHandler imp
 
 	public void save(String filename) {
  		visFileLocation = filename;
- 		browser.execute(visualization.generateSaveJavascript(filename));
+ 		browser.execute(visualization.generateSaveJavascript(filename, port));
 	}
 
 	public void save() {
@@ -209,7 +233,7 @@ public class AnalyzerVisualizationController extends AbstractXulEventHandler imp
 		// first clear the server cache
 
 		AggregationManager.instance().getCacheControl(null, null).flushSchemaCache();
-		browser.execute(visualization.generateRefreshDataJavascript(xmiFileLocation, modelId));
+		browser.execute(visualization.generateRefreshDataJavascript(xmiFileLocation, modelId, port));
 	}
 
 	public void refreshModel() {
@@ -218,7 +242,7 @@ public class AnalyzerVisualizationController extends AbstractXulEventHandler imp
 		// TODO: can we do this without requiring a "remote save"?
 		AggregationManager.instance().getCacheControl(null, null).flushSchemaCache();
 
-		browser.execute(visualization.generateRefreshModelJavascript(xmiFileLocation, modelId));
+		browser.execute(visualization.generateRefreshModelJavascript(xmiFileLocation, modelId, port));
 		// "gCtrlr.repositoryBrowserController.remoteSave('"+modelId+"','tmp', '', 'xanalyzer', true)"
 
 	}
@@ -259,7 +283,14 @@ public class AnalyzerVisualizationController extends AbstractXulEventHandler imp
 	}
 
 	public void setXmiFileLocation(String xmiFileLocation) {
+		TemporaryArtifactManager artifacts = TemporaryArtifactManager.getInstance();
+		if (this.xmiFileLocation != null) {
+		  artifacts.release(new File(this.xmiFileLocation));
+		}
 		this.xmiFileLocation = xmiFileLocation;
+		if (xmiFileLocation != null) {
+		  artifacts.acquire(new File(xmiFileLocation));
+		}
 	}
 
 	public void setVisFileLocation(String visFileLocation) {
@@ -244,6 +244,8 @@ public class PRPTVisualization extends AbstractVisualization {
       if(tempModel){
         ModelerHelper theHelper = ModelerHelper.getInstance();
         model = theHelper.clone(model);
+        // the model is read from its file
+        theHelper.saveTemporaryModel(model);
       }
       final ModelerWorkspace fModel = model;
       Spoon spoon = ((Spoon)SpoonFactory.getInstance());
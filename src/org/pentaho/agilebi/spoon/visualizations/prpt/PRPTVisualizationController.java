@@ -26,6 +26,7 @@ import org.pentaho.agilebi.modeler.ModelerException;
 import org.pentaho.agilebi.modeler.ModelerWorkspace;
 import org.pentaho.agilebi.modeler.util.ISpoonModelerSource;
 import org.pentaho.agilebi.spoon.ModelerHelper;
+import org.pentaho.agilebi.spoon.TemporaryArtifactManager;
 import org.pentaho.agilebi.spoon.perspective.AgileBiModelerPerspective;
 import org.pentaho.agilebi.spoon.publish.PublisherHelper;
 import org.pentaho.agilebi.spoon.visualizations.AbstractVisualization;
@@ -75,6 +76,7 @@ public class PRPTVisualizationController extends AbstractXulEventHandler impleme
   private XulEditpanel propPanel;
   private XulMenuList zoomList;
   private ModelerWorkspace model;
+  private File modelFile;
   private boolean dirty = true;
   
 
@@ -393,7 +395,22 @@ public class PRPTVisualizationController extends AbstractXulEventHandler impleme
   }
   
   public void setModel(ModelerWorkspace model) {
+    dispose();
     this.model = model; 
+    if (model != null && model.getFileName() != null) {
+      modelFile = new File(model.getFileName());
+      TemporaryArtifactManager.getInstance().acquire(modelFile);
+    }
+  }
+
+  /**
+   * Releases the model file the report reads, called when its tab is closed.
+   */
+  public void dispose() {
+    if (modelFile != null) {
+      TemporaryArtifactManager.getInstance().release(modelFile);
+      modelFile = null;
+    }
   }
   
   public ModelerWorkspace getModel() {
@@ -17,6 +17,7 @@
 
 package org.pentaho.agilebi.vfs;
 
+import java.io.File;
 import java.util.Collection;
 
 import org.apache.commons.vfs.FileName;
@@ -28,7 +29,9 @@ import org.apache.commons.vfs.provider.FileProvider;
 
 /**
  * this VFS provider converts a metadata model on the fly to a 
- * mondrian file, so we don't need to store tmp mondrian files
+ * mondrian file, so we don't need to store tmp mondrian files.
+ * A specific logical model can be selected with mtm:path/model.xmi#modelId. Since file names may contain '#'
+ * too, the suffix is only taken as a model id if the part before it is an existing .xmi file.
  * 
  * @author Will Gorman (wgorman@pentaho.com)
  *
@@ -44,15 +47,30 @@ public class MetadataToMondrianVfs implements FileProvider {
 
     // for now assume that all URIs are absolute and we don't handle compound URIs
     if (uri != null) {
-      // this is a fully qualified file path
+      // this is a fully qualified file path, optionally followed by #modelId to select a logical model
       int pos = uri.indexOf(':');
       String filePath = uri.substring(pos + 1);
-      MetadataToMondrianVfsFileObject fileInfo = new MetadataToMondrianVfsFileObject(filePath);
+      String modelId = null;
+      if (!new File(filePath).isFile()) {
+        int modelPos = filePath.lastIndexOf(MondrianSchemaCache.MODEL_SEPARATOR);
+        while (modelPos >= 0 && !isXmiFile(filePath.substring(0, modelPos))) {
+          modelPos = filePath.lastIndexOf(MondrianSchemaCache.MODEL_SEPARATOR, modelPos - 1);
+        }
+        if (modelPos >= 0) {
+          modelId = filePath.substring(modelPos + 1);
+          filePath = filePath.substring(0, modelPos);
+        }
+      }
+      MetadataToMondrianVfsFileObject fileInfo = new MetadataToMondrianVfsFileObject(filePath, modelId);
       return fileInfo;
     }
     return null;
   }
 
+  private boolean isXmiFile(String filePath) {
+    return filePath.toLowerCase().endsWith(".xmi") && new File(filePath).isFile(); //$NON-NLS-1$
+  }
+
   public FileObject createFileSystem(final String arg0, final FileObject arg1, final FileSystemOptions arg2)
       throws FileSystemException {
     // not needed for our usage
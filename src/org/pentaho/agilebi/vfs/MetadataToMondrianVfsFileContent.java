@@ -17,13 +17,9 @@
 
 package org.pentaho.agilebi.vfs;
 
-import java.io.ByteArrayInputStream;
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.security.cert.Certificate;
-import java.util.Locale;
 import java.util.Map;
 
 import org.apache.commons.vfs.FileContent;
@@ -31,14 +27,13 @@ import org.apache.commons.vfs.FileContentInfo;
 import org.apache.commons.vfs.FileObject;
 import org.apache.commons.vfs.FileSystemException;
 import org.apache.commons.vfs.RandomAccessContent;
+import org.apache.commons.vfs.impl.DefaultFileContentInfo;
 import org.apache.commons.vfs.util.RandomAccessMode;
-import org.pentaho.metadata.model.Domain;
-import org.pentaho.metadata.model.LogicalModel;
-import org.pentaho.metadata.util.MondrianModelExporter;
-import org.pentaho.metadata.util.XmiParser;
 
 public class MetadataToMondrianVfsFileContent implements FileContent {
 
+  private static final String CONTENT_TYPE = "text/xml"; //$NON-NLS-1$
+
   private MetadataToMondrianVfsFileObject fileObject;
 
   private InputStream inputStream = null;
@@ -55,13 +50,11 @@ public class MetadataToMondrianVfsFileContent implements FileContent {
   }
 
   public long getSize() throws FileSystemException {
-    // not needed for our usage
-    return 0;
+    return fileObject.getSchema().getSize();
   }
 
   public long getLastModifiedTime() throws FileSystemException {
-    // not needed for our usage
-    return 0;
+    return fileObject.getSchema().getLastModified();
   }
 
   public void setLastModifiedTime(final long arg0) throws FileSystemException {
@@ -103,31 +96,9 @@ public class MetadataToMondrianVfsFileContent implements FileContent {
 
   public InputStream getInputStream() throws FileSystemException {
 
-    try {
-      // read in stream, generate mondrian model, write out stream.
-      XmiParser parser = new XmiParser();
-      FileInputStream fis = new FileInputStream(new File(fileObject.getFileRef()));
-      Domain domain = parser.parseXmi(fis);
-      String locale = Locale.getDefault().toString();
-      if (domain.getLocales().size() > 0) {
-        locale = domain.getLocales().get(0).getCode();
-      }
-      
-      if (domain.getLogicalModels().size() == 0) {
-        throw new Exception("Domain " + fileObject.getFileRef() + " does not contain model.");
-      }
-
-      LogicalModel lModel = domain.getLogicalModels().get(0);
-      if(domain.getLogicalModels().size() > 1) {
-        lModel = domain.getLogicalModels().get(1);
-      }
-      MondrianModelExporter exporter = new MondrianModelExporter(lModel, locale);
-      String mondrianSchema = exporter.createMondrianModelXML();
-
-      inputStream = new ByteArrayInputStream(mondrianSchema.getBytes());
-    } catch (Exception e) {
-      throw new FileSystemException(e.getLocalizedMessage(), e);
-    }
+    // make sure we pick up changes made to the XMI since the file object was last attached
+    fileObject.refresh();
+    inputStream = fileObject.getSchema().getInputStream();
     isOpen = true;
     return inputStream;
   }
@@ -164,8 +135,7 @@ public class MetadataToMondrianVfsFileContent implements FileContent {
   }
 
   public FileContentInfo getContentInfo() throws FileSystemException {
-    // not needed for our usage
-    return null;
+    return new DefaultFileContentInfo(CONTENT_TYPE, MondrianSchemaCache.ENCODING);
   }
 
   public boolean isOpen() {
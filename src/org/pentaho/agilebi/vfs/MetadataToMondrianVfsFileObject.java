@@ -55,12 +55,16 @@ public class MetadataToMondrianVfsFileObject implements FileObject {
   
   private String fileRef;
 
+  private String modelId;
+
   private FileContent content = null;
 
   private FileName name;
 
   private FileType type;
 
+  private MondrianSchemaCache.CachedSchema schema = null;
+
   public MetadataToMondrianVfsFileObject(final String fileRef) {
     this.fileRef = fileRef;
     // try to guess the file type
@@ -69,6 +73,14 @@ public class MetadataToMondrianVfsFileObject implements FileObject {
 
   }
 
+  public MetadataToMondrianVfsFileObject(final String fileRef, final String modelId) {
+    this.fileRef = fileRef;
+    this.modelId = modelId;
+    type = FileType.FILE;
+    name = new MetadataToMondrianVfsFileName(getUriPath(), type);
+
+  }
+
   public MetadataToMondrianVfsFileObject(final String fileRef, final FileType type) {
     this.fileRef = fileRef;
     this.type = type;
@@ -80,6 +92,17 @@ public class MetadataToMondrianVfsFileObject implements FileObject {
     return fileRef;
   }
 
+  /**
+   * @return the id of the logical model to expose, or null for the default model
+   */
+  public String getModelId() {
+    return modelId;
+  }
+
+  private String getUriPath() {
+    return modelId == null ? fileRef : fileRef + MondrianSchemaCache.MODEL_SEPARATOR + modelId;
+  }
+
   public FileName getName() {
     return name;
   }
@@ -87,7 +110,7 @@ public class MetadataToMondrianVfsFileObject implements FileObject {
   public URL getURL() throws FileSystemException {
     URL url = null;
     try {
-      url = new URL("mtm:/" + fileRef); //$NON-NLS-1$
+      url = new URL("mtm:/" + getUriPath()); //$NON-NLS-1$
     } catch (Exception e) {
 
     }
@@ -201,13 +224,27 @@ public class MetadataToMondrianVfsFileObject implements FileObject {
     }
   }
 
+  /**
+   * Returns the generated schema backing this file, attaching to the schema cache if needed.
+   */
+  MondrianSchemaCache.CachedSchema getSchema() throws FileSystemException {
+    if (schema == null) {
+      try {
+        schema = MondrianSchemaCache.getInstance().getSchema(new File(fileRef), modelId);
+      } catch (Exception e) {
+        throw new FileSystemException(e.getLocalizedMessage(), e);
+      }
+    }
+    return schema;
+  }
+
   public void refresh() throws FileSystemException {
-    // not needed for our usage
+    // detach, the next access re-validates against the XMI file
+    schema = null;
   }
 
   public boolean isAttached() {
-    // not needed for our usage
-    return false;
+    return schema != null;
   }
 
   public boolean isContentOpen() {
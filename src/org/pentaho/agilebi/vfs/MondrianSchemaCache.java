@@ -0,0 +1,310 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.vfs;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.pentaho.agilebi.platform.XmiFileStamp;
+import org.pentaho.metadata.model.Domain;
+import org.pentaho.metadata.model.LogicalModel;
+import org.pentaho.metadata.util.MondrianModelExporter;
+import org.pentaho.metadata.util.XmiParser;
+
+/**
+ * Process-wide cache of the mondrian schemas generated from metadata (XMI) files by the mtm:// VFS provider.
+ * Entries are keyed by the canonical path of the XMI file and the id of the logical model the schema was generated
+ * for, and are only served while the file's last modified time and length still match the values captured when the
+ * schema was generated. Schemas are generated lazily, one logical model at a time, and concurrent requests for a
+ * schema that isn't cached wait for a single generation. The least recently used entry is evicted when the cache
+ * is full.
+ *
+ * The cached schema bytes are never handed out directly, callers get a read-only stream over them.
+ */
+public class MondrianSchemaCache implements MondrianSchemaCacheMBean {
+
+  public static final String ENCODING = "UTF-8"; //$NON-NLS-1$
+
+  public static final char MODEL_SEPARATOR = '#';
+
+  public static final int DEFAULT_MAX_ENTRIES = 32;
+
+  private static final MondrianSchemaCache instance = new MondrianSchemaCache();
+
+  private final Map<String, CachedSchema> cache;
+
+  private final ConcurrentMap<String, FutureTask<CachedSchema>> loading = new ConcurrentHashMap<String, FutureTask<CachedSchema>>();
+
+  private final AtomicLong hits = new AtomicLong();
+
+  private final AtomicLong misses = new AtomicLong();
+
+  protected MondrianSchemaCache() {
+    this(DEFAULT_MAX_ENTRIES);
+  }
+
+  public MondrianSchemaCache(final int maxEntries) {
+    cache = new LinkedHashMap<String, CachedSchema>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, CachedSchema> eldest) {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  public static MondrianSchemaCache getInstance() {
+    return instance;
+  }
+
+  /**
+   * Returns a read-only stream over the mondrian schema for the given XMI file, generating it if the file is not
+   * cached yet or has changed since it was cached.
+   *
+   * @param xmiFile metadata file to convert
+   * @return stream over the schema bytes
+   * @throws Exception if the XMI cannot be parsed or converted
+   */
+  public InputStream getSchemaStream(File xmiFile) throws Exception {
+    return getSchema(xmiFile).getInputStream();
+  }
+
+  /**
+   * Returns a read-only stream over the mondrian schema for one logical model of the given XMI file.
+   *
+   * @param xmiFile metadata file to convert
+   * @param modelId id of the logical model to convert, or null for the default model
+   * @return stream over the schema bytes
+   * @throws Exception if the XMI cannot be parsed or converted
+   */
+  public InputStream getSchemaStream(File xmiFile, String modelId) throws Exception {
+    return getSchema(xmiFile, modelId).getInputStream();
+  }
+
+  /**
+   * Returns the cache entry for the given XMI file, generating the schema if needed.
+   *
+   * @param xmiFile metadata file to convert
+   * @return up to date cache entry
+   * @throws Exception if the XMI cannot be parsed or converted
+   */
+  public CachedSchema getSchema(File xmiFile) throws Exception {
+    return getSchema(xmiFile, null);
+  }
+
+  /**
+   * Returns the cache entry for one logical model of the given XMI file, generating the schema if needed.
+   *
+   * @param xmiFile metadata file to convert
+   * @param modelId id of the logical model to convert, or null for the default model
+   * @return up to date cache entry
+   * @throws Exception if the XMI cannot be parsed, the model does not exist or cannot be converted
+   */
+  public CachedSchema getSchema(final File xmiFile, final String modelId) throws Exception {
+    final String key = getKey(xmiFile, modelId);
+    final XmiFileStamp stamp = new XmiFileStamp(xmiFile);
+
+    synchronized (cache) {
+      CachedSchema cached = cache.get(key);
+      if (cached != null && cached.matches(stamp)) {
+        hits.incrementAndGet();
+        return cached;
+      }
+    }
+    misses.incrementAndGet();
+
+    FutureTask<CachedSchema> task = new FutureTask<CachedSchema>(new Callable<CachedSchema>() {
+      public CachedSchema call() throws Exception {
+        CachedSchema generated = new CachedSchema(generateSchema(xmiFile, modelId), stamp);
+        synchronized (cache) {
+          cache.put(key, generated);
+        }
+        return generated;
+      }
+    });
+    FutureTask<CachedSchema> pending = loading.putIfAbsent(key, task);
+    if (pending == null) {
+      pending = task;
+      task.run();
+    }
+    try {
+      return pending.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof Exception) {
+        throw (Exception) e.getCause();
+      }
+      throw (Error) e.getCause();
+    } finally {
+      if (pending == task) {
+        loading.remove(key, task);
+      }
+    }
+  }
+
+  /**
+   * Drops the cached schemas of all logical models of the given XMI file, if any.
+   *
+   * @param xmiFile metadata file
+   */
+  public void invalidate(File xmiFile) {
+    String key;
+    try {
+      key = getKey(xmiFile, null);
+    } catch (IOException e) {
+      // nothing can have been cached under a path we can't resolve
+      return;
+    }
+    String modelPrefix = key + MODEL_SEPARATOR;
+    synchronized (cache) {
+      for (Iterator<String> keys = cache.keySet().iterator(); keys.hasNext();) {
+        String cachedKey = keys.next();
+        if (cachedKey.equals(key) || cachedKey.startsWith(modelPrefix)) {
+          keys.remove();
+        }
+      }
+    }
+  }
+
+  /**
+   * Drops all cached schemas.
+   */
+  public void clear() {
+    synchronized (cache) {
+      cache.clear();
+    }
+  }
+
+  public int size() {
+    synchronized (cache) {
+      return cache.size();
+    }
+  }
+
+  public int getEntryCount() {
+    return size();
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public double getHitRate() {
+    long lookups = hits.get() + misses.get();
+    return lookups == 0 ? 0 : (double) hits.get() / lookups;
+  }
+
+  protected String getKey(File xmiFile, String modelId) throws IOException {
+    String path = xmiFile.getCanonicalPath();
+    return modelId == null ? path : path + MODEL_SEPARATOR + modelId;
+  }
+
+  protected byte[] generateSchema(File xmiFile, String modelId) throws Exception {
+    // read in stream, generate mondrian model
+    XmiParser parser = new XmiParser();
+    Domain domain;
+    FileInputStream fis = new FileInputStream(xmiFile);
+    try {
+      domain = parser.parseXmi(fis);
+    } finally {
+      fis.close();
+    }
+    String locale = Locale.getDefault().toString();
+    if (domain.getLocales().size() > 0) {
+      locale = domain.getLocales().get(0).getCode();
+    }
+
+    if (domain.getLogicalModels().size() == 0) {
+      throw new Exception("Domain " + xmiFile.getPath() + " does not contain model.");
+    }
+
+    LogicalModel lModel;
+    if (modelId != null) {
+      lModel = domain.findLogicalModel(modelId);
+      if (lModel == null) {
+        throw new Exception("Domain " + xmiFile.getPath() + " does not contain model " + modelId + ".");
+      }
+    } else {
+      // by default the OLAP model follows the reporting model
+      lModel = domain.getLogicalModels().get(0);
+      if (domain.getLogicalModels().size() > 1) {
+        lModel = domain.getLogicalModels().get(1);
+      }
+    }
+    MondrianModelExporter exporter = new MondrianModelExporter(lModel, locale);
+    String mondrianSchema = exporter.createMondrianModelXML();
+
+    return mondrianSchema.getBytes(ENCODING);
+  }
+
+  /**
+   * A generated schema along with the state of the XMI file it was generated from.
+   */
+  public static class CachedSchema {
+
+    private final byte[] schema;
+
+    private final XmiFileStamp stamp;
+
+    CachedSchema(byte[] schema, XmiFileStamp stamp) {
+      this.schema = schema;
+      this.stamp = stamp;
+    }
+
+    boolean matches(XmiFileStamp stamp) {
+      return this.stamp.equals(stamp);
+    }
+
+    public InputStream getInputStream() {
+      return new ByteArrayInputStream(schema);
+    }
+
+    /**
+     * @return the length of the generated schema in bytes
+     */
+    public int getSize() {
+      return schema.length;
+    }
+
+    /**
+     * @return the last modified time of the XMI file the schema was generated from
+     */
+    public long getLastModified() {
+      return stamp.getLastModified();
+    }
+
+  }
+
+}
@@ -17,19 +17,26 @@
 
 package org.pentaho.di.core.lifecycle.pdi;
 
-import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.lang.ObjectUtils.Null;
+import org.apache.commons.vfs.FileSystemException;
 import org.apache.commons.vfs.VFS;
 import org.apache.commons.vfs.impl.DefaultFileSystemManager;
 import org.eclipse.swt.widgets.Display;
 import org.pentaho.agilebi.modeler.util.ModelerSourceFactory;
-import org.pentaho.agilebi.platform.JettyServer;
+import org.pentaho.agilebi.platform.AgileBiMetrics;
+import org.pentaho.agilebi.platform.StartupProfiler;
+import org.pentaho.agilebi.platform.StartupTaskGraph;
+import org.pentaho.agilebi.spoon.AgileBiServerManager;
 import org.pentaho.agilebi.spoon.KettleModelerSource;
 import org.pentaho.agilebi.spoon.OutputStepModelerSource;
+import org.pentaho.agilebi.spoon.SpoonModelerWorkspaceHelper;
 import org.pentaho.agilebi.spoon.perspective.AgileBiInstaPerspective;
 import org.pentaho.agilebi.spoon.perspective.AgileBiModelerPerspective;
-import org.pentaho.agilebi.spoon.perspective.AgileBiSpoonInstaPlugin;
+import org.pentaho.agilebi.spoon.publish.BiServerConfig;
+import org.pentaho.agilebi.spoon.registry.WriteBehindRegistry;
 import org.pentaho.agilebi.spoon.visualizations.IVisualization;
 import org.pentaho.agilebi.spoon.visualizations.VisualizationManager;
 import org.pentaho.agilebi.vfs.MetadataToMondrianVfs;
@@ -43,15 +50,19 @@ import org.pentaho.di.core.logging.LogChannel;
 import org.pentaho.di.core.plugins.PluginClassTypeMapping;
 import org.pentaho.di.ui.core.PropsUI;
 import org.pentaho.di.ui.spoon.Spoon;
-import org.pentaho.platform.api.engine.IPluginManager;
-import org.pentaho.platform.engine.core.system.PentahoSystem;
+import org.pentaho.metadata.registry.IMetadataRegistry;
+import org.pentaho.metadata.registry.RegistryFactory;
 
 @LifecyclePlugin(id = "AgileBiPlugin")
 @PluginClassTypeMapping(classTypes = { GUIOption.class }, implementationClass = { Null.class })
 public class AgileBILifecycleListener implements LifecycleListener, GUIOption<Object> {
   public static int consolePort;
 
-  private JettyServer server = null;
+  private static final int STARTUP_THREADS = 3;
+
+  private static final long STARTUP_EXIT_TIMEOUT = 5000;
+
+  private StartupTaskGraph startup;
 
   private boolean showTips;
 
@@ -69,74 +80,121 @@ public class AgileBILifecycleListener implements LifecycleListener, GUIOption<Ob
       props.setRepositoriesDialogAtStartupShown(false);
     }
 
-    new Thread(new Runnable() {
+    final StartupProfiler profiler = StartupProfiler.getInstance();
+    profiler.reset();
+    AgileBiMetrics.getInstance().register("Startup", "AgileBILifecycle", profiler); //$NON-NLS-1$ //$NON-NLS-2$
+
+    final AgileBiServerManager serverManager = AgileBiServerManager.getInstance();
+    // Instaview as the startup perspective needs the server right away
+    final boolean startServer = !serverManager.getConfig().isLazyStartup()
+        || AgileBiInstaPerspective.PERSPECTIVE_ID.equals(spoon.getStartupPerspective());
+
+    LogChannel.GENERAL.logBasic("Starting agile-bi");
+    // independent steps overlap, the summary is reported once both the steps and the UI registration are done
+    final AtomicInteger pendingReports = new AtomicInteger(2);
+    final Runnable report = new Runnable() {
+      public void run() {
+        if (pendingReports.decrementAndGet() == 0) {
+          profiler.report(serverManager.getConfig().getStartupTraceFile());
+        }
+      }
+    };
+    startup = new StartupTaskGraph(STARTUP_THREADS, profiler);
+    startup.setOnComplete(report);
 
-      @Override
+    startup.add("vfs-registration", new Runnable() { //$NON-NLS-1$
       public void run() {
+        // because we're outside of the default classpath,
+        // META-INF/providers.xml is not loaded, so instead,
+        // we register our VFS provider programmatically
         try {
-          LogChannel.GENERAL.logBasic("Starting agile-bi");
-          // because we're outside of the default classpath,
-          // META-INF/providers.xml is not loaded, so instead,
-          // we register our VFS provider programmatically
           ((DefaultFileSystemManager) VFS.getManager()).addProvider("mtm", new MetadataToMondrianVfs());
-
-          int port = 9999;
-          boolean portFound = false;
-          int tries = 100;
-          while (portFound == false && tries > 0) {
-            port++;
-            tries--;
-            Socket sock = null;
-            try {
-              sock = new Socket("localhost", port);
-            } catch (Exception e) {
-              portFound = true;
-            } finally {
-              if (sock != null) {
-                sock.close();
-              }
-            }
-          }
-          if (!portFound) {
-            throw new IllegalStateException("Could not find an open port to start the Agile-BI server on");
-          }
-
-          AgileBILifecycleListener.consolePort = port;
-          server = new JettyServer("localhost", port); //$NON-NLS-1$
-          server.startServer();
-
-          // Only initialize the Instaview perspective if the Instaview plugin is registered
-          if (AgileBiSpoonInstaPlugin.isInstaviewRegistered(PentahoSystem.get(IPluginManager.class))) {
-            AgileBiInstaPerspective.getInstance().onStart();
+        } catch (FileSystemException e) {
+          throw new IllegalStateException(e);
+        }
+      }
+    });
+    startup.add("config-loading", new Runnable() { //$NON-NLS-1$
+      public void run() {
+        BiServerConfig.getInstance();
+        SpoonModelerWorkspaceHelper.initGeoContext();
+      }
+    });
+    startup.add("visualization-loading", new Runnable() { //$NON-NLS-1$
+      public void run() {
+        VisualizationManager.getInstance();
+      }
+    });
+    // in lazy mode the first visualization or Instaview action starts the server
+    if (startServer) {
+      startup.add("server-start", new Runnable() { //$NON-NLS-1$
+        public void run() {
+          try {
+            serverManager.start();
+          } catch (RuntimeException e) {
+            throw e;
+          } catch (Exception e) {
+            throw new IllegalStateException(e);
           }
-        } catch (Exception e) {
-          e.printStackTrace();
         }
-
+      }, "vfs-registration"); //$NON-NLS-1$
+    }
+    startup.add("ui-registration", new Runnable() { //$NON-NLS-1$
+      public void run() {
         Display.getDefault().asyncExec(new Runnable() {
 
           @Override
           public void run() {
+            if (startup.isCancelled()) {
+              return;
+            }
+            StartupProfiler.Phase phase = profiler.begin("modeler-source-registration"); //$NON-NLS-1$
             ModelerSourceFactory.registerSourceType(OutputStepModelerSource.OUTPUTSTEP_SOURCE_TYPE,
                 OutputStepModelerSource.class);
             ModelerSourceFactory.registerSourceType(KettleModelerSource.SOURCE_TYPE, KettleModelerSource.class);
+            phase.end();
             if (SpoonFactory.getInstance() != null) { // condition if for unit testing
-              ((Spoon) SpoonFactory.getInstance()).addFileListener(AgileBiModelerPerspective.getInstance());
-
-              for (IVisualization viz : VisualizationManager.getInstance().getVisualizations()) {
-                ((Spoon) SpoonFactory.getInstance()).addFileListener(viz);
+              phase = profiler.begin("file-listener-registration"); //$NON-NLS-1$
+              try {
+                ((Spoon) SpoonFactory.getInstance()).addFileListener(AgileBiModelerPerspective.getInstance());
+
+                for (IVisualization viz : VisualizationManager.getInstance().getVisualizations()) {
+                  ((Spoon) SpoonFactory.getInstance()).addFileListener(viz);
+                }
+              } finally {
+                phase.end();
               }
             }
+            report.run();
           }
         });
       }
-    }).start();
+    }, "visualization-loading"); //$NON-NLS-1$
+
+    startup.start();
   }
 
   public void onExit(LifeEventHandler arg0) throws LifecycleException {
-    server.stopServer();
+    if (startup != null) {
+      // nothing started from here on is needed anymore, give the running steps a moment to wind down
+      startup.cancel();
+      try {
+        if (!startup.await(STARTUP_EXIT_TIMEOUT, TimeUnit.MILLISECONDS)) {
+          LogChannel.GENERAL.logBasic("Agile BI startup steps still running at exit");
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    AgileBiServerManager.getInstance().stop();
     AgileBiInstaPerspective.getInstance().shutdown();
 
+    // write lineage added in the last moments before exit
+    IMetadataRegistry registry = RegistryFactory.getInstance().getMetadataRegistry();
+    if (registry instanceof WriteBehindRegistry) {
+      ((WriteBehindRegistry) registry).close();
+    }
+
     // reset tooltips and the repositories dialog
     Spoon spoon = Spoon.getInstance();
     if (spoon.getStartupPerspective() != null
@@ -0,0 +1,97 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.platform;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.di.core.database.DatabaseMeta;
+
+@SuppressWarnings("nls")
+public class DatabaseMetaCacheTest {
+
+  private List<String> dsNames = new ArrayList<String>();
+
+  @Before
+  public void setUp() throws Exception {
+    for (int i = 0; i < 3; i++) {
+      File file = File.createTempFile("dbmeta-cache", ".xmi");
+      FileUtils.copyFile(new File("test-res/example_olap.xmi"), file);
+      dsNames.add(file.getPath());
+    }
+  }
+
+  @After
+  public void tearDown() {
+    for (String dsName : dsNames) {
+      new File(dsName).delete();
+    }
+  }
+
+  @Test
+  public void testCachedUntilFileChanges() throws Exception {
+    DatabaseMetaCache cache = new DatabaseMetaCache(10);
+    String dsName = dsNames.get(0);
+    DatabaseMeta first = cache.getDatabaseMeta(dsName);
+    assertNotNull(first);
+    assertSame(first, cache.getDatabaseMeta(dsName));
+
+    File file = new File(dsName);
+    file.setLastModified(file.lastModified() - 10000);
+    DatabaseMeta second = cache.getDatabaseMeta(dsName);
+    assertNotSame(first, second);
+    assertSame(second, cache.getDatabaseMeta(dsName));
+
+    long lastModified = file.lastModified();
+    FileUtils.writeStringToFile(file, FileUtils.readFileToString(file, "UTF-8") + "\n", "UTF-8");
+    file.setLastModified(lastModified);
+    DatabaseMeta third = cache.getDatabaseMeta(dsName);
+    assertNotSame(second, third);
+
+    cache.remove(dsName);
+    assertNotSame(third, cache.getDatabaseMeta(dsName));
+  }
+
+  @Test
+  public void testLeastRecentlyUsedIsEvicted() throws Exception {
+    DatabaseMetaCache cache = new DatabaseMetaCache(2);
+    DatabaseMeta first = cache.getDatabaseMeta(dsNames.get(0));
+    DatabaseMeta second = cache.getDatabaseMeta(dsNames.get(1));
+    assertSame(first, cache.getDatabaseMeta(dsNames.get(0)));
+    cache.getDatabaseMeta(dsNames.get(2));
+    assertEquals(2, cache.size());
+
+    // the second file was the least recently used one
+    assertSame(first, cache.getDatabaseMeta(dsNames.get(0)));
+    assertNotSame(second, cache.getDatabaseMeta(dsNames.get(1)));
+
+    cache.clear();
+    assertEquals(0, cache.size());
+  }
+
+}
@@ -0,0 +1,135 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.platform;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.Test;
+
+public class DatabaseMetaConnectionPoolTest {
+
+  @Test
+  public void testConnectionsAreReused() throws Exception {
+    CountingConnectionFactory factory = new CountingConnectionFactory();
+    DatabaseMetaConnectionPool pool = new DatabaseMetaConnectionPool(factory, new DataSourcePoolConfig());
+
+    Connection connection = pool.getConnection();
+    assertEquals(1, pool.getNumActive());
+    connection.close();
+    assertEquals(0, pool.getNumActive());
+    assertEquals(1, pool.getNumIdle());
+
+    pool.getConnection().close();
+    assertEquals(1, factory.created);
+    pool.close();
+  }
+
+  @Test
+  public void testWarmUp() throws Exception {
+    CountingConnectionFactory factory = new CountingConnectionFactory();
+    DatabaseMetaConnectionPool pool = new DatabaseMetaConnectionPool(factory, new DataSourcePoolConfig());
+
+    pool.warmUp(3);
+    assertEquals(3, pool.getNumIdle());
+    assertEquals(3, factory.created);
+
+    pool.warmUp(3);
+    assertEquals(3, factory.created);
+    pool.close();
+  }
+
+  @Test
+  public void testAsyncWarmUp() throws Exception {
+    CountingConnectionFactory factory = new CountingConnectionFactory();
+    DatabaseMetaConnectionPool pool = new DatabaseMetaConnectionPool(factory, new DataSourcePoolConfig());
+
+    pool.warmUpAsync(2).get();
+    assertEquals(2, pool.getNumIdle());
+    assertEquals(2, factory.created);
+    pool.close();
+  }
+
+  @Test
+  public void testRunningStatementsAreCancelled() throws Exception {
+    final Statement statement = mock(Statement.class);
+    CountingConnectionFactory factory = new CountingConnectionFactory() {
+      @Override
+      public Connection createConnection() throws SQLException {
+        Connection connection = super.createConnection();
+        when(connection.createStatement()).thenReturn(statement);
+        return connection;
+      }
+    };
+    DatabaseMetaConnectionPool pool = new DatabaseMetaConnectionPool(factory, new DataSourcePoolConfig());
+
+    Connection connection = pool.getConnection();
+    connection.createStatement();
+    assertEquals(1, pool.getOpenStatements());
+    assertEquals(1, pool.cancelRunningStatements());
+    verify(statement).cancel();
+
+    connection.close();
+    assertEquals(0, pool.getOpenStatements());
+    assertEquals(0, pool.cancelRunningStatements());
+    pool.close();
+  }
+
+  @Test
+  public void testReturnedConnectionsAreNotCancelled() throws Exception {
+    final Statement statement = mock(Statement.class);
+    CountingConnectionFactory factory = new CountingConnectionFactory() {
+      @Override
+      public Connection createConnection() throws SQLException {
+        Connection connection = super.createConnection();
+        when(connection.createStatement()).thenReturn(statement);
+        return connection;
+      }
+    };
+    DatabaseMetaConnectionPool pool = new DatabaseMetaConnectionPool(factory, new DataSourcePoolConfig());
+
+    Connection connection = pool.getConnection();
+    connection.createStatement().close();
+    connection.close();
+    pool.cancelRunningStatements();
+    verify(statement, never()).cancel();
+    pool.close();
+  }
+
+  private static class CountingConnectionFactory extends DatabaseMetaConnectionFactory {
+
+    int created = 0;
+
+    CountingConnectionFactory() {
+      super(null);
+    }
+
+    @Override
+    public Connection createConnection() throws SQLException {
+      created++;
+      return mock(Connection.class);
+    }
+  }
+}
@@ -0,0 +1,265 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.platform;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.SQLTransientConnectionException;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.di.core.database.DatabaseMeta;
+
+public class DatastoreBouncerTest {
+
+  private CountingHelper helper;
+
+  private FakeTracker tracker;
+
+  private final CountDownLatch release = new CountDownLatch(1);
+
+  @Before
+  public void setUp() {
+    helper = new CountingHelper();
+    tracker = new FakeTracker();
+    InstaviewHelper.setInstaviewHelper(helper);
+  }
+
+  @After
+  public void tearDown() {
+    InstaviewHelper.setInstaviewHelper(null);
+  }
+
+  @Test
+  public void testNeverBouncesByDefault() throws Exception {
+    DatastoreBouncer bouncer = new DatastoreBouncer();
+    for (int i = 0; i < 100; i++) {
+      bouncer.connectionRequested(tracker);
+    }
+    assertEquals(100, bouncer.getConnectionCount());
+    assertEquals(0, helper.restarts);
+  }
+
+  @Test
+  public void testBouncesByConnectionCount() throws Exception {
+    DatastoreBouncer bouncer = new DatastoreBouncer();
+    DatastoreBouncePolicy.ByConnectionCount policy = new DatastoreBouncePolicy.ByConnectionCount();
+    policy.setThreshold(3);
+    bouncer.setPolicy(policy);
+
+    for (int i = 0; i < 7; i++) {
+      bouncer.connectionRequested(tracker);
+      bouncer.connectionReturned(Thread.currentThread());
+    }
+    assertEquals(2, helper.restarts);
+    assertEquals(2, bouncer.getBounceCount());
+    assertEquals(2, tracker.idleCleared);
+    assertEquals(1, bouncer.getConnectionCount());
+    assertEquals(0, bouncer.getBorrowedConnections());
+    assertFalse(bouncer.isBouncing());
+  }
+
+  @Test
+  public void testBounceWaitsForBorrowedConnections() throws Exception {
+    final DatastoreBouncer bouncer = createBouncer(2, 5000);
+    Thread borrower = borrowInBackground(bouncer, 100);
+
+    long start = System.currentTimeMillis();
+    bouncer.connectionRequested(tracker);
+    assertTrue(System.currentTimeMillis() - start >= 100);
+    assertEquals(1, helper.restarts);
+    assertEquals(0, bouncer.getSkippedBounceCount());
+    borrower.join();
+  }
+
+  @Test
+  public void testBounceSkippedOnDrainTimeout() throws Exception {
+    final DatastoreBouncer bouncer = createBouncer(2, 200);
+    Thread borrower = borrowInBackground(bouncer, 5000);
+
+    bouncer.connectionRequested(tracker);
+    assertEquals(0, helper.restarts);
+    assertEquals(1, bouncer.getSkippedBounceCount());
+    bouncer.connectionReturned(Thread.currentThread());
+
+    // deferred for another drain timeout
+    bouncer.connectionRequested(tracker);
+    bouncer.connectionReturned(Thread.currentThread());
+    assertEquals(0, helper.restarts);
+    release.countDown();
+    borrower.join();
+    Thread.sleep(250);
+    bouncer.connectionRequested(tracker);
+    bouncer.connectionReturned(Thread.currentThread());
+    assertEquals(1, helper.restarts);
+  }
+
+  @Test
+  public void testNewBorrowersFailFastDuringBounce() throws Exception {
+    final DatastoreBouncer bouncer = createBouncer(2, 5000);
+    Thread borrower = borrowInBackground(bouncer, 5000);
+    Thread bouncing = new Thread() {
+      public void run() {
+        try {
+          bouncer.connectionRequested(tracker);
+        } catch (Exception e) {
+          // the test fails on the restart count
+        }
+        bouncer.connectionReturned(this);
+      }
+    };
+    bouncing.start();
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!bouncer.isBouncing() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertTrue(bouncer.isBouncing());
+
+    long start = System.currentTimeMillis();
+    try {
+      bouncer.connectionRequested(tracker);
+      fail();
+    } catch (SQLTransientConnectionException e) {
+      assertTrue(System.currentTimeMillis() - start < 1000);
+    }
+    assertEquals(1, bouncer.getRejectedRequestCount());
+
+    release.countDown();
+    borrower.join();
+    bouncing.join();
+    assertEquals(1, helper.restarts);
+    bouncer.connectionRequested(tracker);
+    assertEquals(1, bouncer.getBorrowedConnections());
+  }
+
+  @Test
+  public void testThreadHoldingAConnectionDoesNotWaitForItself() throws Exception {
+    DatastoreBouncer bouncer = createBouncer(1, 5000);
+    bouncer.setPolicy(new DatastoreBouncePolicy.Never());
+    bouncer.connectionRequested(tracker);
+    DatastoreBouncePolicy.ByConnectionCount policy = new DatastoreBouncePolicy.ByConnectionCount();
+    policy.setThreshold(1);
+    bouncer.setPolicy(policy);
+
+    long start = System.currentTimeMillis();
+    bouncer.connectionRequested(tracker);
+    assertTrue(System.currentTimeMillis() - start < 5000);
+    assertEquals(0, helper.restarts);
+    assertEquals(2, bouncer.getBorrowedConnections());
+
+    bouncer.connectionReturned(Thread.currentThread());
+    bouncer.connectionReturned(Thread.currentThread());
+    bouncer.connectionRequested(tracker);
+    assertEquals(1, helper.restarts);
+  }
+
+  @Test
+  public void testMemoryIsSampled() throws Exception {
+    DatastoreBouncer bouncer = new DatastoreBouncer();
+    DatastoreBouncePolicy.ByDatastoreMemory policy = new DatastoreBouncePolicy.ByDatastoreMemory();
+    policy.setMaxBytes(100);
+    policy.setSampleIntervalMillis(60000);
+    bouncer.setPolicy(policy);
+
+    helper.memory = 50;
+    bouncer.connectionRequested(tracker);
+    bouncer.connectionReturned(Thread.currentThread());
+    helper.memory = 200;
+    bouncer.connectionRequested(tracker);
+    bouncer.connectionReturned(Thread.currentThread());
+    assertEquals(1, helper.memoryQueries);
+    assertEquals(0, helper.restarts);
+
+    policy.setSampleIntervalMillis(0);
+    bouncer.connectionRequested(tracker);
+    assertEquals(1, helper.restarts);
+  }
+
+  private DatastoreBouncer createBouncer(long threshold, long drainTimeout) {
+    DatastoreBouncer bouncer = new DatastoreBouncer();
+    DatastoreBouncePolicy.ByConnectionCount policy = new DatastoreBouncePolicy.ByConnectionCount();
+    policy.setThreshold(threshold);
+    bouncer.setPolicy(policy);
+    bouncer.setDrainTimeout(drainTimeout);
+    return bouncer;
+  }
+
+  /**
+   * Borrows a connection on another thread and returns it after the given time, or once released.
+   */
+  private Thread borrowInBackground(final DatastoreBouncer bouncer, final long holdMillis) throws Exception {
+    final CountDownLatch borrowed = new CountDownLatch(1);
+    Thread borrower = new Thread() {
+      public void run() {
+        try {
+          bouncer.connectionRequested(tracker);
+          borrowed.countDown();
+          release.await(holdMillis, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+          // the test fails on the latch
+        } finally {
+          bouncer.connectionReturned(this);
+        }
+      }
+    };
+    borrower.start();
+    assertTrue(borrowed.await(5, TimeUnit.SECONDS));
+    return borrower;
+  }
+
+  private static class FakeTracker implements DatastoreBouncer.ConnectionTracker {
+
+    int idleCleared = 0;
+
+    public void closeIdleConnections() {
+      idleCleared++;
+    }
+  }
+
+  private static class CountingHelper implements IInstaviewDatastoreHelper {
+
+    int restarts = 0;
+
+    long memory = -1;
+
+    int memoryQueries = 0;
+
+    public void connectionMade() {
+    }
+
+    public void restartDatastore() {
+      restarts++;
+    }
+
+    public long getDatastoreMemoryUsage() {
+      memoryQueries++;
+      return memory;
+    }
+
+    public boolean isDatastore(DatabaseMeta databaseMeta) {
+      return true;
+    }
+  }
+}
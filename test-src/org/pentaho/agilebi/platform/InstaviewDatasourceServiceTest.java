@@ -0,0 +1,118 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.platform;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class InstaviewDatasourceServiceTest {
+
+  private InstaviewDatasourceService service;
+
+  private String first;
+
+  private String second;
+
+  @Before
+  public void setUp() throws Exception {
+    service = new InstaviewDatasourceService();
+    // don't open connections to a datastore that isn't there
+    DataSourcePoolConfig config = new DataSourcePoolConfig();
+    config.setInitialSize(0);
+    service.setPoolConfig(config);
+    first = copyModel();
+    second = copyModel();
+  }
+
+  @After
+  public void tearDown() {
+    service.clearCache();
+    new File(first).delete();
+    new File(second).delete();
+  }
+
+  private static String copyModel() throws Exception {
+    File file = File.createTempFile("instaview-ds", ".xmi");
+    FileUtils.copyFile(new File("test-res/example_olap.xmi"), file);
+    return file.getPath();
+  }
+
+  private DatabaseMetaConnectionPool getPool(String dsName) throws Exception {
+    return ((InstaviewDatasourceService.DatabaseMetaDataSource) service.getDataSource(dsName)).pool;
+  }
+
+  @Test
+  public void testPoolPerDataSource() throws Exception {
+    DatabaseMetaConnectionPool firstPool = getPool(first);
+    DatabaseMetaConnectionPool secondPool = getPool(second);
+    assertNotSame(firstPool, secondPool);
+    assertSame(firstPool, getPool(first));
+    assertSame(secondPool, getPool(second));
+  }
+
+  @Test
+  public void testClearDataSourceClosesOnlyItsPool() throws Exception {
+    DatabaseMetaConnectionPool firstPool = getPool(first);
+    DatabaseMetaConnectionPool secondPool = getPool(second);
+
+    service.clearDataSource(first);
+    assertTrue(firstPool.isClosed());
+    assertFalse(secondPool.isClosed());
+    assertSame(secondPool, getPool(second));
+
+    DatabaseMetaConnectionPool reopened = getPool(first);
+    assertNotSame(firstPool, reopened);
+    assertFalse(reopened.isClosed());
+  }
+
+  @Test
+  public void testClearCacheClosesAllPools() throws Exception {
+    DatabaseMetaConnectionPool firstPool = getPool(first);
+    DatabaseMetaConnectionPool secondPool = getPool(second);
+
+    service.clearCache();
+    assertTrue(firstPool.isClosed());
+    assertTrue(secondPool.isClosed());
+    assertNotSame(firstPool, getPool(first));
+  }
+
+  @Test
+  public void testPoolRebuiltWhenModelChanges() throws Exception {
+    DatabaseMetaConnectionPool firstPool = getPool(first);
+    DatabaseMetaConnectionPool secondPool = getPool(second);
+
+    File file = new File(first);
+    file.setLastModified(file.lastModified() - 10000);
+    DatabaseMetaConnectionPool rebuilt = getPool(first);
+    assertNotSame(firstPool, rebuilt);
+    assertTrue(firstPool.isClosed());
+    assertSame(rebuilt, getPool(first));
+    assertSame(secondPool, getPool(second));
+  }
+
+}
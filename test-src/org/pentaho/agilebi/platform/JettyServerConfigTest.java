@@ -0,0 +1,65 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.platform;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Properties;
+
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class JettyServerConfigTest {
+
+  @Test
+  public void testMissingFileUsesDefaults() {
+    JettyServerConfig config = JettyServerConfig.load(new File("does/not/exist.properties"));
+    assertEquals(1, config.getAcceptors());
+    assertEquals(50, config.getMaxThreads());
+  }
+
+  @Test
+  public void testLoad() {
+    Properties props = new Properties();
+    props.setProperty("connector.acceptors", "2");
+    props.setProperty("connector.acceptQueueSize", " 100 ");
+    props.setProperty("threadPool.maxThreads", "not a number");
+    JettyServerConfig config = new JettyServerConfig();
+    config.load(props);
+    assertEquals(2, config.getAcceptors());
+    assertEquals(100, config.getAcceptQueueSize());
+    assertEquals(30000, config.getMaxIdleTime());
+    assertEquals(50, config.getMaxThreads());
+  }
+
+  @Test
+  public void testStartup() {
+    JettyServerConfig config = new JettyServerConfig();
+    assertTrue(config.isLazyStartup());
+    assertEquals(0, config.getIdleShutdownMinutes());
+
+    Properties props = new Properties();
+    props.setProperty("server.startup", "Eager ");
+    config.load(props);
+    assertFalse(config.isLazyStartup());
+  }
+
+}
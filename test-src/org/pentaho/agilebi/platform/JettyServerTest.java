@@ -0,0 +1,130 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.platform;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import java.net.ServerSocket;
+
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class JettyServerTest {
+
+  @Test
+  public void testBindToAnyPort() throws Exception {
+    JettyServerConfig config = new JettyServerConfig();
+    config.setMinPort(0);
+    config.setMaxPort(0);
+    JettyServer server = new JettyServer("localhost", config);
+    try {
+      int port = server.bind();
+      assertTrue(port > 0);
+      assertEquals(port, server.getPort());
+      assertEquals(port, server.bind());
+    } finally {
+      server.stopServer();
+    }
+  }
+
+  @Test
+  public void testSessionPorts() throws Exception {
+    JettyServerConfig config = new JettyServerConfig();
+    config.setMinPort(0);
+    config.setMaxPort(0);
+    config.setSessionPools(2);
+    JettyServer server = new JettyServer("localhost", config);
+    try {
+      int port = server.bind();
+      int[] sessionPorts = server.getSessionPorts();
+      assertEquals(2, sessionPorts.length);
+
+      int first = server.acquireSessionPort();
+      int second = server.acquireSessionPort();
+      assertTrue(first != port && second != port && first != second);
+
+      server.releaseSessionPort(first);
+      assertEquals(first, server.acquireSessionPort());
+    } finally {
+      server.stopServer();
+    }
+  }
+
+  @Test
+  public void testStopUnregistersSessionPoolMetrics() throws Exception {
+    JettyServerConfig config = new JettyServerConfig();
+    config.setMinPort(0);
+    config.setMaxPort(0);
+    config.setSessionPools(1);
+    ObjectName sessionPool = new ObjectName(AgileBiMetrics.DOMAIN + ":type=ThreadPool,name="
+        + ObjectName.quote("agilebi-jetty-session-1"));
+    JettyServer server = new JettyServer("localhost", config);
+    try {
+      server.bind();
+      assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(sessionPool));
+    } finally {
+      server.stopServer();
+    }
+    assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(sessionPool));
+
+    int port = server.acquireSessionPort();
+    server.releaseSessionPort(port);
+    assertEquals(0, server.getSessionPorts().length);
+  }
+
+  @Test
+  public void testWithoutSessionPools() throws Exception {
+    JettyServerConfig config = new JettyServerConfig();
+    config.setMinPort(0);
+    config.setMaxPort(0);
+    JettyServer server = new JettyServer("localhost", config);
+    try {
+      int port = server.bind();
+      assertEquals(0, server.getSessionPorts().length);
+      assertEquals(port, server.acquireSessionPort());
+    } finally {
+      server.stopServer();
+    }
+  }
+
+  @Test
+  public void testBindSkipsBusyPort() throws Exception {
+    ServerSocket busy = new ServerSocket(0);
+    try {
+      JettyServerConfig config = new JettyServerConfig();
+      config.setMinPort(busy.getLocalPort());
+      config.setMaxPort(busy.getLocalPort() + 20);
+      JettyServer server = new JettyServer("localhost", config);
+      try {
+        int port = server.bind();
+        assertTrue(port > busy.getLocalPort());
+      } finally {
+        server.stopServer();
+      }
+    } finally {
+      busy.close();
+    }
+  }
+
+}
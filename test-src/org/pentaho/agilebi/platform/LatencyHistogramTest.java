@@ -0,0 +1,63 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.platform;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void testEmpty() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getPercentile(99));
+    assertEquals(0d, histogram.getMean(), 0d);
+  }
+
+  @Test
+  public void testPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 0; i < 90; i++) {
+      histogram.record(3);
+    }
+    for (int i = 0; i < 10; i++) {
+      histogram.record(150);
+    }
+    assertEquals(100, histogram.getCount());
+    assertEquals(150, histogram.getMax());
+    assertEquals(5, histogram.getPercentile(50));
+    assertEquals(5, histogram.getPercentile(90));
+    // capped by the largest recorded value rather than the bucket bound
+    assertEquals(150, histogram.getPercentile(99));
+    assertEquals(17.7d, histogram.getMean(), 0.001d);
+  }
+
+  @Test
+  public void testBucketCounts() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(-1);
+    histogram.record(Long.MAX_VALUE);
+    long[] counts = histogram.getBucketCounts();
+    assertEquals(LatencyHistogram.getBucketBounds().length, counts.length);
+    assertEquals(1, counts[0]);
+    assertEquals(1, counts[counts.length - 1]);
+  }
+
+}
@@ -0,0 +1,117 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.platform;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mortbay.jetty.HttpConnection;
+import org.mortbay.jetty.Server;
+import org.mortbay.jetty.handler.AbstractHandler;
+
+@SuppressWarnings("nls")
+public class RequestStatisticsHandlerTest {
+
+  private Server server;
+
+  private RequestStatisticsHandler handler;
+
+  private String baseUrl;
+
+  @Before
+  public void setUp() throws Exception {
+    handler = new RequestStatisticsHandler(3, 2);
+    handler.setHandler(new AbstractHandler() {
+      public void handle(String target, HttpServletRequest request, HttpServletResponse response, int dispatch)
+          throws IOException {
+        if (target.endsWith("/fail")) {
+          response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        } else {
+          response.setContentType("text/plain");
+          response.getOutputStream().write("0123456789".getBytes());
+        }
+        HttpConnection.getCurrentConnection().getRequest().setHandled(true);
+      }
+    });
+    server = new Server(0);
+    server.setHandler(handler);
+    server.start();
+    baseUrl = "http://localhost:" + server.getConnectors()[0].getLocalPort();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    server.stop();
+  }
+
+  @Test
+  public void testEndpointName() {
+    assertEquals("/pentaho/api/repos", RequestStatisticsHandler.getEndpointName("/pentaho/api/repos/x/editor", 3));
+    assertEquals("/pentaho/api", RequestStatisticsHandler.getEndpointName("/pentaho/api", 3));
+    assertEquals("/pentaho", RequestStatisticsHandler.getEndpointName("/pentaho/api", 1));
+    assertEquals("/", RequestStatisticsHandler.getEndpointName("/", 3));
+    assertEquals("/", RequestStatisticsHandler.getEndpointName(null, 3));
+  }
+
+  @Test
+  public void testRequestsAreCounted() throws Exception {
+    request("/pentaho/api/repos/a/editor");
+    request("/pentaho/api/repos/b/editor");
+    request("/pentaho/plugin/analyzer/fail");
+
+    RequestStatistics repos = handler.getEndpointStatistics("/pentaho/api/repos");
+    assertEquals(2, repos.getRequests());
+    assertEquals(20, repos.getBytesOut());
+    assertEquals(0, repos.getErrors());
+    assertEquals(0, repos.getActiveRequests());
+
+    assertEquals(1, handler.getEndpointStatistics("/pentaho/plugin/analyzer").getErrors());
+    assertEquals(3, handler.getTotal().getRequests());
+    assertTrue(handler.getTotal().getLatencyMaxMillis() >= 0);
+  }
+
+  @Test
+  public void testEndpointsAreBounded() throws Exception {
+    request("/a/b/c");
+    request("/d/e/f");
+    request("/g/h/i");
+    assertNull(handler.getEndpointStatistics("/g/h/i"));
+    assertEquals(3, handler.getTotal().getRequests());
+  }
+
+  private void request(String path) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+    if (connection.getResponseCode() == 200) {
+      IOUtils.toByteArray(connection.getInputStream());
+    }
+    connection.disconnect();
+  }
+
+}
@@ -0,0 +1,82 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.platform;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class StartupProfilerTest {
+
+  @Test
+  public void testPhases() throws Exception {
+    StartupProfiler profiler = new StartupProfiler();
+    StartupProfiler.Phase first = profiler.begin("first");
+    StartupProfiler.Phase second = profiler.begin("second");
+    Thread.sleep(5);
+    second.end();
+    first.end();
+    first.end();
+
+    assertArrayEquals(new String[] { "second", "first" }, profiler.getPhaseNames());
+    assertTrue(first.getDurationMillis() >= second.getDurationMillis());
+    assertTrue(profiler.getTotalMillis() >= first.getDurationMillis());
+    assertTrue(profiler.getSummary().startsWith("total="));
+    assertTrue(profiler.getSummary().indexOf(" first=") > 0);
+  }
+
+  @Test
+  public void testUnfinishedPhaseIsNotRecorded() {
+    StartupProfiler profiler = new StartupProfiler();
+    profiler.begin("running");
+    assertEquals(0, profiler.getPhases().size());
+  }
+
+  @Test
+  public void testResetStartsANewProfile() throws Exception {
+    StartupProfiler profiler = new StartupProfiler();
+    profiler.begin("server-bind").end();
+    StartupProfiler.Phase running = profiler.begin("vfs-registration");
+    Thread.sleep(5);
+
+    profiler.reset();
+    profiler.begin("server-bind").end();
+    running.end();
+    assertArrayEquals(new String[] { "server-bind" }, profiler.getPhaseNames());
+    assertTrue(profiler.getPhases().get(0).getOffsetMillis() < 5);
+  }
+
+  @Test
+  public void testChromeTrace() throws Exception {
+    StartupProfiler profiler = new StartupProfiler();
+    profiler.begin("phase").end();
+
+    JSONArray events = profiler.toChromeTrace().getJSONArray("traceEvents");
+    assertEquals(1, events.length());
+    JSONObject event = events.getJSONObject(0);
+    assertEquals("phase", event.getString("name"));
+    assertEquals("X", event.getString("ph"));
+    assertEquals(Thread.currentThread().getId(), event.getLong("tid"));
+  }
+
+}
@@ -0,0 +1,116 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.platform;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class StartupTaskGraphTest {
+
+  private final List<String> ran = new CopyOnWriteArrayList<String>();
+
+  private Runnable record(final String name) {
+    return new Runnable() {
+      public void run() {
+        ran.add(name);
+      }
+    };
+  }
+
+  @Test
+  public void testDependenciesRunFirst() throws Exception {
+    StartupTaskGraph graph = new StartupTaskGraph(3, new StartupProfiler());
+    graph.add("a", record("a"));
+    graph.add("b", record("b"));
+    graph.add("c", record("c"), "a", "b");
+    final CountDownLatch completed = new CountDownLatch(1);
+    graph.setOnComplete(new Runnable() {
+      public void run() {
+        completed.countDown();
+      }
+    });
+    graph.start();
+
+    assertTrue(graph.await(5, TimeUnit.SECONDS));
+    assertTrue(completed.await(5, TimeUnit.SECONDS));
+    assertEquals(3, ran.size());
+    assertEquals("c", ran.get(2));
+  }
+
+  @Test
+  public void testFailureSkipsDependents() throws Exception {
+    StartupProfiler profiler = new StartupProfiler();
+    StartupTaskGraph graph = new StartupTaskGraph(2, profiler);
+    graph.add("broken", new Runnable() {
+      public void run() {
+        throw new IllegalStateException("broken");
+      }
+    });
+    graph.add("dependent", record("dependent"), "broken");
+    graph.add("independent", record("independent"));
+    graph.start();
+
+    assertTrue(graph.await(5, TimeUnit.SECONDS));
+    assertEquals(1, ran.size());
+    assertEquals("independent", ran.get(0));
+    // failed steps are timed too
+    assertEquals(2, profiler.getPhases().size());
+  }
+
+  @Test
+  public void testCancel() throws Exception {
+    final CountDownLatch running = new CountDownLatch(1);
+    StartupTaskGraph graph = new StartupTaskGraph(1, new StartupProfiler());
+    graph.add("slow", new Runnable() {
+      public void run() {
+        running.countDown();
+        try {
+          Thread.sleep(10000);
+        } catch (InterruptedException e) {
+          ran.add("interrupted");
+        }
+      }
+    });
+    graph.add("next", record("next"), "slow");
+    graph.add("queued", record("queued"));
+    graph.start();
+
+    assertTrue(running.await(5, TimeUnit.SECONDS));
+    graph.cancel();
+    assertTrue(graph.await(5, TimeUnit.SECONDS));
+    assertTrue(graph.isCancelled());
+    assertEquals(1, ran.size());
+    assertEquals("interrupted", ran.get(0));
+    assertFalse(ran.contains("next"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownDependency() {
+    new StartupTaskGraph(1).add("a", record("a"), "missing");
+  }
+
+}
@@ -0,0 +1,238 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.platform;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mortbay.jetty.HttpConnection;
+import org.mortbay.jetty.Server;
+import org.mortbay.jetty.handler.AbstractHandler;
+
+@SuppressWarnings("nls")
+public class StaticResourceHandlerTest {
+
+  private static final String SCRIPT;
+
+  static {
+    StringBuilder script = new StringBuilder();
+    for (int i = 0; i < 200; i++) {
+      script.append("var line").append(i).append(" = ").append(i).append(";\n");
+    }
+    SCRIPT = script.toString();
+  }
+
+  private Server server;
+
+  private StaticResourceHandler handler;
+
+  private int served;
+
+  private String vary;
+
+  private String body = SCRIPT;
+
+  private String baseUrl;
+
+  @Before
+  public void setUp() throws Exception {
+    startServer(new JettyServerConfig());
+  }
+
+  private void startServer(JettyServerConfig config) throws Exception {
+    handler = new StaticResourceHandler(config);
+    handler.setHandler(new AbstractHandler() {
+      public void handle(String target, HttpServletRequest request, HttpServletResponse response, int dispatch)
+          throws IOException {
+        served++;
+        response.setContentType("text/javascript");
+        if (vary != null) {
+          response.setHeader("Vary", vary);
+        }
+        response.getWriter().write(body);
+        HttpConnection.getCurrentConnection().getRequest().setHandled(true);
+      }
+    });
+    server = new Server(0);
+    server.setHandler(handler);
+    server.start();
+    baseUrl = "http://localhost:" + server.getConnectors()[0].getLocalPort();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    server.stop();
+  }
+
+  @Test
+  public void testResourceIsServedFromMemory() throws Exception {
+    HttpURLConnection first = open("/pentaho/content/common-ui/resources/web/dojo.js");
+    assertEquals(200, first.getResponseCode());
+    assertEquals(SCRIPT, IOUtils.toString(first.getInputStream()));
+    assertNotNull(first.getHeaderField("ETag"));
+    assertEquals("public, max-age=86400", first.getHeaderField("Cache-Control"));
+
+    HttpURLConnection second = open("/pentaho/content/common-ui/resources/web/dojo.js");
+    assertEquals(SCRIPT, IOUtils.toString(second.getInputStream()));
+    assertEquals(first.getHeaderField("ETag"), second.getHeaderField("ETag"));
+    assertEquals(1, served);
+    assertEquals(1, handler.getEntryCount());
+    assertEquals(1, handler.getHits());
+  }
+
+  @Test
+  public void testConditionalGet() throws Exception {
+    HttpURLConnection first = open("/pentaho/content/analyzer/scripts/analyzer.js");
+    IOUtils.toString(first.getInputStream());
+
+    HttpURLConnection revalidate = open("/pentaho/content/analyzer/scripts/analyzer.js");
+    revalidate.setRequestProperty("If-None-Match", first.getHeaderField("ETag"));
+    assertEquals(304, revalidate.getResponseCode());
+
+    HttpURLConnection modifiedSince = open("/pentaho/content/analyzer/scripts/analyzer.js");
+    modifiedSince.setIfModifiedSince(first.getLastModified());
+    assertEquals(304, modifiedSince.getResponseCode());
+
+    HttpURLConnection changed = open("/pentaho/content/analyzer/scripts/analyzer.js");
+    changed.setRequestProperty("If-None-Match", "\"other\"");
+    assertEquals(200, changed.getResponseCode());
+    assertEquals(1, served);
+  }
+
+  @Test
+  public void testGzip() throws Exception {
+    HttpURLConnection connection = open("/pentaho/content/common-ui/resources/web/dojo.js");
+    connection.setRequestProperty("Accept-Encoding", "gzip, deflate");
+    assertEquals("gzip", connection.getHeaderField("Content-Encoding"));
+    InputStream in = new GZIPInputStream(connection.getInputStream());
+    assertEquals(SCRIPT, IOUtils.toString(in));
+  }
+
+  @Test
+  public void testDynamicContentIsNotCached() throws Exception {
+    for (int i = 0; i < 2; i++) {
+      HttpURLConnection connection = open("/pentaho/content/analyzer/editor");
+      assertEquals(SCRIPT, IOUtils.toString(connection.getInputStream()));
+      assertNull(connection.getHeaderField("ETag"));
+    }
+    assertEquals(2, served);
+    assertEquals(0, handler.getEntryCount());
+  }
+
+  @Test
+  public void testCachedPerLanguage() throws Exception {
+    vary = "Accept-Language";
+    String[] languages = { "en-US", "de-DE", "en-US" };
+    for (String language : languages) {
+      HttpURLConnection connection = open("/pentaho/content/common-ui/resources/web/messages.js");
+      connection.setRequestProperty("Accept-Language", language);
+      assertEquals(SCRIPT, IOUtils.toString(connection.getInputStream()));
+      assertEquals("Accept-Language", connection.getHeaderField("Vary"));
+    }
+    assertEquals(2, served);
+    assertEquals(2, handler.getEntryCount());
+    assertEquals(1, handler.getHits());
+  }
+
+  @Test
+  public void testCachedOnceForAllLanguages() throws Exception {
+    String[] languages = { "en-US", "de-DE", "fr" };
+    for (String language : languages) {
+      HttpURLConnection connection = open("/pentaho/content/common-ui/resources/web/dojo.js");
+      connection.setRequestProperty("Accept-Language", language);
+      assertEquals(SCRIPT, IOUtils.toString(connection.getInputStream()));
+    }
+    assertEquals(1, served);
+    assertEquals(1, handler.getEntryCount());
+  }
+
+  @Test
+  public void testLargeResourceIsPassedThrough() throws Exception {
+    server.stop();
+    JettyServerConfig config = new JettyServerConfig();
+    config.setStaticResourceMaxEntryKb(1);
+    startServer(config);
+
+    for (int i = 0; i < 2; i++) {
+      HttpURLConnection connection = open("/pentaho/content/common-ui/resources/web/dojo.js");
+      assertEquals(SCRIPT, IOUtils.toString(connection.getInputStream()));
+    }
+    assertEquals(2, served);
+    assertEquals(0, handler.getEntryCount());
+  }
+
+  @Test
+  public void testLeastRecentlyUsedIsEvicted() throws Exception {
+    server.stop();
+    JettyServerConfig config = new JettyServerConfig();
+    config.setStaticResourceCacheMb(1);
+    config.setStaticResourceMaxEntryKb(1024);
+    startServer(config);
+    StringBuilder large = new StringBuilder();
+    while (large.length() < 400 * 1024) {
+      large.append(SCRIPT);
+    }
+    body = large.toString();
+
+    String[] paths = { "/pentaho/content/analyzer/a.js", "/pentaho/content/analyzer/b.js",
+        "/pentaho/content/analyzer/a.js", "/pentaho/content/analyzer/c.js", "/pentaho/content/analyzer/a.js",
+        "/pentaho/content/analyzer/b.js" };
+    for (String path : paths) {
+      IOUtils.toString(open(path).getInputStream());
+    }
+    // b was the least recently used when c came in
+    assertEquals(4, served);
+    assertEquals(2, handler.getEntryCount());
+    assertTrue(handler.getCachedBytes() <= 1024 * 1024);
+  }
+
+  @Test
+  public void testVaryingResponseIsNotCached() throws Exception {
+    vary = "Cookie";
+    for (int i = 0; i < 2; i++) {
+      HttpURLConnection connection = open("/pentaho/content/common-ui/resources/web/dojo.js");
+      assertEquals(SCRIPT, IOUtils.toString(connection.getInputStream()));
+      assertEquals("Cookie", connection.getHeaderField("Vary"));
+      assertNull(connection.getHeaderField("ETag"));
+    }
+    assertEquals(2, served);
+    assertEquals(0, handler.getEntryCount());
+  }
+
+  private HttpURLConnection open(String path) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+    connection.setUseCaches(false);
+    return connection;
+  }
+
+}
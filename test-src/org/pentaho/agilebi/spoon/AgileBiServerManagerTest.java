@@ -0,0 +1,208 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.spoon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.agilebi.platform.JettyServer;
+import org.pentaho.agilebi.platform.JettyServerConfig;
+
+@SuppressWarnings("nls")
+public class AgileBiServerManagerTest {
+
+  private ExecutorService executor;
+
+  private BlockingManager manager;
+
+  @Before
+  public void setUp() throws Exception {
+    executor = Executors.newCachedThreadPool();
+    JettyServerConfig config = new JettyServerConfig();
+    config.setIdleShutdownMinutes(0);
+    manager = new BlockingManager(config);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    manager.proceed.countDown();
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testQueriesDontWaitForStartup() throws Exception {
+    Future<?> starting = executor.submit(start());
+    assertTrue(manager.launching.await(5, TimeUnit.SECONDS));
+
+    Future<Boolean> running = executor.submit(new Callable<Boolean>() {
+      public Boolean call() throws Exception {
+        return manager.isRunning();
+      }
+    });
+    assertFalse(running.get(1, TimeUnit.SECONDS));
+    Future<Integer> port = executor.submit(new Callable<Integer>() {
+      public Integer call() throws Exception {
+        manager.getConfig();
+        return manager.acquireSessionPort();
+      }
+    });
+    port.get(1, TimeUnit.SECONDS);
+
+    manager.proceed.countDown();
+    starting.get(5, TimeUnit.SECONDS);
+    assertTrue(manager.isRunning());
+    assertEquals(8081, manager.acquireSessionPort());
+  }
+
+  @Test
+  public void testConcurrentStartsLaunchOnce() throws Exception {
+    Future<?> first = executor.submit(start());
+    assertTrue(manager.launching.await(5, TimeUnit.SECONDS));
+    Future<?> second = executor.submit(start());
+    try {
+      second.get(200, TimeUnit.MILLISECONDS);
+      fail("the second start should wait for the first");
+    } catch (TimeoutException e) {
+      // expected
+    }
+
+    manager.proceed.countDown();
+    first.get(5, TimeUnit.SECONDS);
+    second.get(5, TimeUnit.SECONDS);
+    assertEquals(1, manager.launches.get());
+  }
+
+  @Test
+  public void testFailedStartCanBeRetried() throws Exception {
+    manager.proceed.countDown();
+    manager.failure = new IllegalStateException("port in use");
+    try {
+      manager.start();
+      fail("the startup failure should be rethrown");
+    } catch (IllegalStateException e) {
+      assertSame(manager.failure, e);
+    }
+    assertFalse(manager.isRunning());
+
+    manager.failure = null;
+    manager.start();
+    assertTrue(manager.isRunning());
+    assertEquals(2, manager.launches.get());
+  }
+
+  @Test
+  public void testStopStopsTheServer() throws Exception {
+    manager.proceed.countDown();
+    manager.start();
+    JettyServer server = manager.server;
+    manager.stop();
+    assertFalse(manager.isRunning());
+    verify(server).stopServer();
+  }
+
+  @Test
+  public void testStopGivesUpOnHangingStartup() throws Exception {
+    manager.getConfig().setShutdownTimeout(100);
+    Future<?> starting = executor.submit(start());
+    assertTrue(manager.launching.await(5, TimeUnit.SECONDS));
+    JettyServer server = manager.server;
+
+    long start = System.currentTimeMillis();
+    manager.stop();
+    assertTrue(System.currentTimeMillis() - start < 5000);
+    verify(server).stopServer();
+    assertFalse(manager.isRunning());
+
+    // the abandoned startup doesn't install its server
+    manager.proceed.countDown();
+    try {
+      starting.get(5, TimeUnit.SECONDS);
+      fail("the abandoned startup should fail");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof CancellationException);
+    }
+    assertFalse(manager.isRunning());
+  }
+
+  private Callable<Void> start() {
+    return new Callable<Void>() {
+      public Void call() throws Exception {
+        manager.start();
+        return null;
+      }
+    };
+  }
+
+  /**
+   * Launches a mock server once the test lets it proceed.
+   */
+  private static class BlockingManager extends AgileBiServerManager {
+
+    final CountDownLatch launching = new CountDownLatch(1);
+
+    final CountDownLatch proceed = new CountDownLatch(1);
+
+    final AtomicInteger launches = new AtomicInteger();
+
+    volatile Exception failure;
+
+    volatile JettyServer server;
+
+    BlockingManager(JettyServerConfig config) {
+      super(config);
+    }
+
+    @Override
+    JettyServer createServer() {
+      server = mock(JettyServer.class);
+      when(server.acquireSessionPort()).thenReturn(8081);
+      return server;
+    }
+
+    @Override
+    void launch(JettyServer jettyServer) throws Exception {
+      launches.incrementAndGet();
+      launching.countDown();
+      proceed.await();
+      if (failure != null) {
+        throw failure;
+      }
+    }
+  }
+
+}
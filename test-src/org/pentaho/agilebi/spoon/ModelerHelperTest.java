@@ -22,10 +22,15 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
 import java.util.List;
 
+import org.apache.commons.io.FileUtils;
+
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.pentaho.agilebi.modeler.ModelerWorkspace;
+import org.pentaho.agilebi.modeler.util.ModelerWorkspaceUtil;
 import org.pentaho.di.cluster.SlaveServer;
 import org.pentaho.di.core.KettleEnvironment;
 import org.pentaho.di.core.ProvidesDatabaseConnectionInformation;
@@ -226,4 +231,35 @@ public class ModelerHelperTest {
     assertEquals(transName, source.getMetaName());
     assertEquals(stepId, source.getMetaId());
   }
+
+  @Test
+  public void cloneWritesTemporaryModelOnSave() throws Exception {
+    String sourceFile = "test-res/example_olap.xmi";
+    ModelerWorkspace source = new ModelerWorkspace(new SpoonModelerWorkspaceHelper());
+    ModelerWorkspaceUtil.loadWorkspace(sourceFile, FileUtils.readFileToString(new File(sourceFile), "UTF-8"), source);
+    String sourceName = source.getModelName();
+
+    ModelerHelper helper = new ModelerHelper();
+    ModelerWorkspace copy = helper.clone(source);
+    File copyFile = new File(copy.getFileName());
+    try {
+      assertEquals(sourceName, source.getModelName());
+      assertEquals(sourceFile, source.getFileName());
+      assertTrue(copy.isTemporary());
+      assertFalse(copy.isDirty());
+      assertFalse(sourceName.equals(copy.getModelName()));
+      // only written once a visualization needs the file
+      assertEquals(0, copyFile.length());
+
+      assertEquals(copy.getFileName(), helper.saveTemporaryModel(copy));
+      assertTrue(copyFile.length() > 0);
+
+      ModelerWorkspace reloaded = new ModelerWorkspace(new SpoonModelerWorkspaceHelper());
+      ModelerWorkspaceUtil.loadWorkspace(copy.getFileName(), FileUtils.readFileToString(copyFile, "UTF-8"), reloaded);
+      assertEquals(copy.getModelName(), reloaded.getModelName());
+    } finally {
+      copyFile.delete();
+    }
+  }
+
 }
@@ -0,0 +1,181 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+
+package org.pentaho.agilebi.spoon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class TemporaryArtifactManagerTest {
+
+  private File dir;
+
+  private ManualClockManager manager;
+
+  @Before
+  public void setUp() throws Exception {
+    dir = File.createTempFile("artifacts", "");
+    dir.delete();
+    dir.mkdirs();
+    manager = new ManualClockManager(100, 1000);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    FileUtils.deleteDirectory(dir);
+  }
+
+  @Test
+  public void testDisposableDeletedOnLastRelease() throws Exception {
+    File file = manager.track(createFile("Model 1.xmi", 10), true);
+    assertTrue(manager.acquire(file));
+    assertTrue(manager.acquire(file));
+    manager.release(file);
+    assertTrue(file.exists());
+    manager.release(file);
+    assertFalse(file.exists());
+    assertFalse(manager.isTracked(file));
+  }
+
+  @Test
+  public void testReleasedFileIsKeptUntilEvicted() throws Exception {
+    File file = manager.track(createFile("Model 1.xmi", 10));
+    manager.acquire(file);
+    manager.release(file);
+    assertTrue(file.exists());
+    assertEquals(1, manager.getEntryCount());
+  }
+
+  @Test
+  public void testUntrackedFilesAreIgnored() throws Exception {
+    File file = createFile("report.xanalyzer", 10);
+    assertFalse(manager.acquire(file));
+    manager.release(file);
+    assertTrue(file.exists());
+  }
+
+  @Test
+  public void testAgeEviction() throws Exception {
+    File old = manager.track(createFile("Model 1.xmi", 10));
+    File referenced = manager.track(createFile("Model 2.xmi", 10));
+    manager.acquire(referenced);
+    manager.now += 2000;
+    File fresh = manager.track(createFile("Model 3.xmi", 10));
+
+    assertFalse(old.exists());
+    assertTrue(referenced.exists());
+    assertTrue(fresh.exists());
+    assertEquals(1, manager.getEvictions());
+  }
+
+  @Test
+  public void testSizeEvictionIsLeastRecentlyUsedFirst() throws Exception {
+    File first = manager.track(createFile("Model 1.xmi", 40));
+    File second = manager.track(createFile("Model 2.xmi", 40));
+    manager.acquire(first);
+    manager.release(first);
+    File third = manager.track(createFile("Model 3.xmi", 40));
+
+    assertTrue(first.exists());
+    assertFalse(second.exists());
+    assertTrue(third.exists());
+    assertEquals(80, manager.getTotalBytes());
+  }
+
+  @Test
+  public void testReferencedFilesAreNotEvictedForSize() throws Exception {
+    File first = manager.track(createFile("Model 1.xmi", 80));
+    manager.acquire(first);
+    File second = manager.track(createFile("Model 2.xmi", 80));
+    assertTrue(second.exists());
+
+    manager.evict();
+    assertTrue(first.exists());
+    assertFalse(second.exists());
+    assertEquals(1, manager.getReferencedCount());
+  }
+
+  @Test
+  public void testReleaseEvicts() throws Exception {
+    File first = manager.track(createFile("Model 1.xmi", 80));
+    manager.acquire(first);
+    File second = manager.track(createFile("Model 2.xmi", 80));
+    manager.acquire(second);
+    manager.release(second);
+
+    assertTrue(first.exists());
+    assertFalse(second.exists());
+    assertEquals(1, manager.getEvictions());
+  }
+
+  @Test
+  public void testPurgeDeletesOnlyTrackedFiles() throws Exception {
+    File tracked = manager.track(createFile("Model 1.xmi", 10));
+    File foreign = createFile("notes.txt", 10);
+
+    new ManualClockManager(100, 1000).purge(dir);
+    assertFalse(tracked.exists());
+    assertTrue(foreign.exists());
+    assertFalse(new File(dir, TemporaryArtifactManager.MANIFEST).exists());
+  }
+
+  @Test
+  public void testPurgeRemovesEmptyFolder() throws Exception {
+    manager.track(createFile("Model 1.xmi", 10));
+    manager.track(createFile("report.xanalyzer", 10));
+    new ManualClockManager(100, 1000).purge(dir);
+    assertFalse(dir.exists());
+  }
+
+  @Test
+  public void testPurgeWithoutManifest() throws Exception {
+    File file = createFile("Model 1.xmi", 10);
+    manager.purge(dir);
+    assertTrue(file.exists());
+  }
+
+  private File createFile(String name, int size) throws Exception {
+    File file = new File(dir, name);
+    FileUtils.writeByteArrayToFile(file, new byte[size]);
+    return file;
+  }
+
+  private static class ManualClockManager extends TemporaryArtifactManager {
+
+    long now = 0;
+
+    ManualClockManager(long maxBytes, long maxAge) {
+      super(maxBytes, maxAge);
+    }
+
+    @Override
+    protected long currentTimeMillis() {
+      return now;
+    }
+  }
+
+}
@@ -0,0 +1,107 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+
+package org.pentaho.agilebi.spoon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class TemporaryModelAllocatorTest {
+
+  private File dir;
+
+  @Before
+  public void setUp() throws Exception {
+    dir = File.createTempFile("models", "");
+    dir.delete();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    FileUtils.deleteDirectory(dir);
+  }
+
+  @Test
+  public void testAllocatesInSequence() throws Exception {
+    TemporaryModelAllocator allocator = new TemporaryModelAllocator(dir, "Model ", ".xmi");
+    File first = allocator.allocate();
+    File second = allocator.allocate();
+    assertEquals("Model 1.xmi", first.getName());
+    assertEquals("Model 2.xmi", second.getName());
+    assertTrue(first.exists());
+    assertEquals("Model 2", allocator.getModelName(second));
+  }
+
+  @Test
+  public void testSeededFromDirectory() throws Exception {
+    dir.mkdirs();
+    new File(dir, "Model 7.xmi").createNewFile();
+    new File(dir, "Model x.xmi").createNewFile();
+    new File(dir, "other.txt").createNewFile();
+    TemporaryModelAllocator allocator = new TemporaryModelAllocator(dir, "Model ", ".xmi");
+    assertEquals("Model 8.xmi", allocator.allocate().getName());
+  }
+
+  @Test
+  public void testSkipsFilesCreatedElsewhere() throws Exception {
+    TemporaryModelAllocator allocator = new TemporaryModelAllocator(dir, "Model ", ".xmi");
+    dir.mkdirs();
+    new File(dir, "Model 1.xmi").createNewFile();
+    assertEquals("Model 2.xmi", allocator.allocate().getName());
+  }
+
+  @Test
+  public void testConcurrentAllocation() throws Exception {
+    final TemporaryModelAllocator allocator = new TemporaryModelAllocator(dir, "Model ", ".xmi");
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<File>> futures = new ArrayList<Future<File>>();
+      for (int i = 0; i < 100; i++) {
+        futures.add(executor.submit(new Callable<File>() {
+          public File call() throws Exception {
+            return allocator.allocate();
+          }
+        }));
+      }
+      Set<File> files = new HashSet<File>();
+      for (Future<File> future : futures) {
+        files.add(future.get());
+      }
+      assertEquals(100, files.size());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+}
@@ -0,0 +1,87 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.spoon.publish;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.InputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class ModelServerPublishTest {
+
+  private static final String SCHEMA = "<Schema name=\"Ums\u00e4tze\">\n  <Cube name=\"Verk\u00e4ufe\"/>\n</Schema>";
+
+  private File schemaFile = new File("models", "ModelServerPublishTest.mondrian.xml");
+
+  @After
+  public void tearDown() {
+    schemaFile.delete();
+  }
+
+  @Test
+  public void testUploadedSchemaHasXmlDeclaration() throws Exception {
+    CapturingPublish publish = new CapturingPublish(SCHEMA);
+    int result = publish.publishOlapSchemaToServer(schemaFile.getName(), "jndi", "model", null, false, false, false,
+        null);
+
+    assertEquals(ModelServerPublish.PUBLISH_SUCCESS, result);
+    assertArrayEquals(("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" + SCHEMA).getBytes("UTF-8"), publish.uploaded);
+  }
+
+  @Test
+  public void testExistingXmlDeclarationIsKept() throws Exception {
+    String schema = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" + SCHEMA;
+    CapturingPublish publish = new CapturingPublish(schema);
+    publish.publishOlapSchemaToServer(schemaFile.getName(), "jndi", "model", null, false, false, false, null);
+
+    assertArrayEquals(schema.getBytes("UTF-8"), publish.uploaded);
+  }
+
+  /**
+   * Publishes a fixed schema and keeps the bytes it would have uploaded.
+   */
+  private static class CapturingPublish extends ModelServerPublish {
+
+    private final String schema;
+
+    byte[] uploaded;
+
+    CapturingPublish(String schema) {
+      this.schema = schema;
+    }
+
+    @Override
+    protected String exportMondrianSchema() {
+      return schema;
+    }
+
+    @Override
+    public int publishMondrainSchema(InputStream mondrianFile, String catalogName, String datasourceInfo,
+        boolean overwriteInRepos) throws Exception {
+      uploaded = IOUtils.toByteArray(mondrianFile);
+      return PUBLISH_SUCCESS;
+    }
+  }
+
+}
@@ -0,0 +1,164 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+
+package org.pentaho.agilebi.spoon.registry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.metadata.registry.Entity;
+import org.pentaho.metadata.registry.Link;
+import org.pentaho.metadata.registry.Type;
+import org.pentaho.metadata.registry.Verb;
+
+@SuppressWarnings("nls")
+public class JournaledRegistryTest {
+
+  private File file;
+
+  private File journal;
+
+  @Before
+  public void setUp() throws Exception {
+    file = File.createTempFile("registry", ".xml");
+    file.delete();
+    journal = new File(file.getPath() + JournaledRegistry.JOURNAL_EXTENSION);
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+    journal.delete();
+  }
+
+  @Test
+  public void testAdditionsAreJournaled() throws Exception {
+    JournaledRegistry registry = createRegistry(1000);
+    addVisualization(registry, "models/Model 1.xmi", "view1.xanalyzer");
+    registry.flush();
+
+    assertTrue(journal.exists());
+    assertFalse(file.exists());
+    assertEquals(3, registry.getJournalRecords());
+    assertEquals(3, FileUtils.readLines(journal, JournaledRegistry.ENCODING).size());
+  }
+
+  @Test
+  public void testJournalIsReplayed() throws Exception {
+    JournaledRegistry registry = createRegistry(1000);
+    addVisualization(registry, "models/Model 1.xmi", "view1.xanalyzer");
+    registry.flush();
+
+    JournaledRegistry reloaded = createRegistry(1000);
+    assertNotNull(reloaded.getEntity("models/Model 1.xmi", Type.TYPE_OLAP_MODEL.getId()));
+    List<Link> uses = reloaded.findLinksTo("models/Model 1.xmi", Type.TYPE_OLAP_MODEL.getId());
+    assertEquals(1, uses.size());
+    assertEquals("view1.xanalyzer", uses.get(0).getSubjectId());
+    assertEquals(1, reloaded.findLinksFrom("view1.xanalyzer", Type.TYPE_ANALYZER_VIEW.getId()).size());
+    assertFalse(reloaded.isDirty());
+  }
+
+  @Test
+  public void testCompaction() throws Exception {
+    JournaledRegistry registry = createRegistry(5);
+    addVisualization(registry, "models/Model 1.xmi", "view1.xanalyzer");
+    registry.flush();
+    assertTrue(journal.exists());
+
+    addVisualization(registry, "models/Model 2.xmi", "view2.xanalyzer");
+    registry.flush();
+    assertTrue(file.exists());
+    assertFalse(journal.exists());
+    assertEquals(0, registry.getJournalRecords());
+
+    JournaledRegistry reloaded = createRegistry(5);
+    assertNotNull(reloaded.getEntity("models/Model 2.xmi", Type.TYPE_OLAP_MODEL.getId()));
+  }
+
+  @Test
+  public void testIndexesAreRebuiltFromRegistryFile() throws Exception {
+    JournaledRegistry registry = createRegistry(1000);
+    addVisualization(registry, "models/Model 1.xmi", "view1.xanalyzer");
+    addVisualization(registry, "models/Model 2.xmi", "view2.xanalyzer");
+    registry.compact();
+    assertFalse(journal.exists());
+
+    JournaledRegistry reloaded = createRegistry(1000);
+    assertEquals(0, reloaded.getJournalRecords());
+    assertEquals(2, reloaded.findEntitiesByType(Type.TYPE_OLAP_MODEL.getId()).size());
+    assertEquals(2, reloaded.findEntitiesByType(Type.TYPE_ANALYZER_VIEW.getId()).size());
+    List<Link> uses = reloaded.findLinksTo("models/Model 2.xmi", Type.TYPE_OLAP_MODEL.getId());
+    assertEquals(1, uses.size());
+    assertEquals("view2.xanalyzer", uses.get(0).getSubjectId());
+    assertEquals(1, reloaded.findLinksFrom("view1.xanalyzer", Type.TYPE_ANALYZER_VIEW.getId()).size());
+  }
+
+  @Test
+  public void testDuplicateLinksAreIgnored() throws Exception {
+    JournaledRegistry registry = createRegistry(1000);
+    addVisualization(registry, "models/Model 1.xmi", "view1.xanalyzer");
+    addVisualization(registry, "models/Model 1.xmi", "view1.xanalyzer");
+
+    assertEquals(1, registry.findLinksTo("models/Model 1.xmi", Type.TYPE_OLAP_MODEL.getId()).size());
+    assertEquals(1, registry.findEntitiesByType(Type.TYPE_OLAP_MODEL.getId()).size());
+  }
+
+  @Test
+  public void testMalformedRecordsAreSkipped() throws Exception {
+    FileUtils.writeStringToFile(journal, "E\t" + Type.TYPE_OLAP_MODEL.getId() + "\tmodels/Model 1.xmi\tModel 1\nL\tbroken",
+        JournaledRegistry.ENCODING);
+    JournaledRegistry registry = createRegistry(1000);
+    assertNotNull(registry.getEntity("models/Model 1.xmi", Type.TYPE_OLAP_MODEL.getId()));
+    assertEquals(1, registry.getJournalRecords());
+  }
+
+  @Test
+  public void testEscaping() {
+    String record = JournaledRegistry.join("E", "a\tb", "c\\d", "e\nf");
+    assertEquals(1, record.split("\n").length);
+    List<String> fields = JournaledRegistry.split(record);
+    assertEquals("a\tb", fields.get(1));
+    assertEquals("c\\d", fields.get(2));
+    assertEquals("e\nf", fields.get(3));
+  }
+
+  private void addVisualization(JournaledRegistry registry, String model, String view) {
+    Entity modelEntity = new Entity(model, model, Type.TYPE_OLAP_MODEL.getId());
+    Entity viewEntity = new Entity(view, view, Type.TYPE_ANALYZER_VIEW.getId());
+    registry.addEntity(modelEntity);
+    registry.addEntity(viewEntity);
+    registry.addLink(new Link(viewEntity, Verb.VERB_USES, modelEntity));
+  }
+
+  private JournaledRegistry createRegistry(int compactionThreshold) throws Exception {
+    JournaledRegistry registry = new JournaledRegistry(60000, compactionThreshold);
+    registry.setFilePath(file.getPath());
+    registry.init();
+    return registry;
+  }
+
+}
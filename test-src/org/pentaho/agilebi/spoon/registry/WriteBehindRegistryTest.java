@@ -0,0 +1,153 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+
+package org.pentaho.agilebi.spoon.registry;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.metadata.registry.Entity;
+import org.pentaho.metadata.registry.OrderedFileRegistry;
+import org.pentaho.metadata.registry.Type;
+
+@SuppressWarnings("nls")
+public class WriteBehindRegistryTest {
+
+  private File file;
+
+  @Before
+  public void setUp() throws Exception {
+    file = File.createTempFile("registry", ".xml");
+    file.delete();
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+    new File(file.getPath() + ".tmp").delete();
+  }
+
+  @Test
+  public void testCommitIsDeferred() throws Exception {
+    WriteBehindRegistry registry = createRegistry(60000);
+    registry.addEntity(new Entity("models/Model 1.xmi", "Model 1", Type.TYPE_OLAP_MODEL.getId()));
+    registry.commit();
+
+    assertFalse(file.exists());
+    assertTrue(registry.isDirty());
+
+    registry.close();
+    assertTrue(file.exists());
+    assertFalse(registry.isDirty());
+    assertFalse(new File(file.getPath() + ".tmp").exists());
+  }
+
+  @Test
+  public void testFlushOnTimer() throws Exception {
+    WriteBehindRegistry registry = createRegistry(10);
+    registry.addEntity(new Entity("models/Model 1.xmi", "Model 1", Type.TYPE_OLAP_MODEL.getId()));
+    registry.commit();
+
+    for (int i = 0; i < 100 && registry.isDirty(); i++) {
+      Thread.sleep(50);
+    }
+    assertFalse(registry.isDirty());
+    assertTrue(file.exists());
+  }
+
+  @Test
+  public void testWrittenRegistryCanBeRead() throws Exception {
+    WriteBehindRegistry registry = createRegistry(60000);
+    registry.addEntity(new Entity("models/Model 1.xmi", "Model 1", Type.TYPE_OLAP_MODEL.getId()));
+    registry.flush();
+    registry.addEntity(new Entity("models/Model 2.xmi", "Model 2", Type.TYPE_OLAP_MODEL.getId()));
+    registry.flush();
+
+    OrderedFileRegistry reread = new OrderedFileRegistry();
+    reread.setFilePath(file.getPath());
+    reread.init();
+    assertNotNull(reread.getEntity("models/Model 1.xmi", Type.TYPE_OLAP_MODEL.getId()));
+    assertNotNull(reread.getEntity("models/Model 2.xmi", Type.TYPE_OLAP_MODEL.getId()));
+  }
+
+  @Test
+  public void testLookupsDontWaitForWrite() throws Exception {
+    final CountDownLatch writing = new CountDownLatch(1);
+    final CountDownLatch proceed = new CountDownLatch(1);
+    final WriteBehindRegistry registry = new WriteBehindRegistry(60000) {
+      @Override
+      protected PendingWrite prepareSnapshot() {
+        final PendingWrite snapshot = super.prepareSnapshot();
+        return new PendingWrite() {
+          @Override
+          protected void run() throws Exception {
+            writing.countDown();
+            proceed.await();
+            snapshot.run();
+          }
+        };
+      }
+    };
+    registry.setFilePath(file.getPath());
+    registry.init();
+    registry.addEntity(new Entity("models/Model 1.xmi", "Model 1", Type.TYPE_OLAP_MODEL.getId()));
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<?> flush = executor.submit(new Callable<Void>() {
+        public Void call() throws Exception {
+          registry.flush();
+          return null;
+        }
+      });
+      assertTrue(writing.await(5, TimeUnit.SECONDS));
+      // the file is being written, the registry isn't locked meanwhile
+      registry.addEntity(new Entity("models/Model 2.xmi", "Model 2", Type.TYPE_OLAP_MODEL.getId()));
+      assertNotNull(registry.getEntity("models/Model 1.xmi", Type.TYPE_OLAP_MODEL.getId()));
+      assertTrue(registry.isDirty());
+
+      proceed.countDown();
+      flush.get(5, TimeUnit.SECONDS);
+      assertTrue(file.exists());
+      assertTrue(registry.isDirty());
+    } finally {
+      proceed.countDown();
+      executor.shutdownNow();
+    }
+  }
+
+  private WriteBehindRegistry createRegistry(long flushDelay) throws Exception {
+    WriteBehindRegistry registry = new WriteBehindRegistry(flushDelay);
+    registry.setFilePath(file.getPath());
+    registry.init();
+    return registry;
+  }
+
+}
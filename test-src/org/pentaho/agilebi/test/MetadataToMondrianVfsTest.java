@@ -17,16 +17,25 @@
 
 package org.pentaho.agilebi.test;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.InputStream;
 
 import junit.framework.Assert;
 
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.vfs.FileContent;
 import org.apache.commons.vfs.FileObject;
 import org.apache.commons.vfs.FileSystemManager;
 import org.apache.commons.vfs.VFS;
 import org.apache.commons.vfs.impl.DefaultFileSystemManager;
 import org.junit.Test;
 import org.pentaho.agilebi.vfs.MetadataToMondrianVfs;
+import org.pentaho.agilebi.vfs.MetadataToMondrianVfsFileObject;
+import org.pentaho.agilebi.vfs.MondrianSchemaCache;
+import org.pentaho.metadata.model.Domain;
+import org.pentaho.metadata.util.XmiParser;
 
 @SuppressWarnings("nls")
 public class MetadataToMondrianVfsTest {
@@ -48,4 +57,89 @@ public class MetadataToMondrianVfsTest {
     String results = buf.toString();
     Assert.assertTrue(results.indexOf("<Cube name=\"customer2 Table\">") >= 0);
   }
+
+  @Test
+  public void testContentMetadata() throws Exception {
+
+    ((DefaultFileSystemManager)VFS.getManager()).addProvider("mtm", new MetadataToMondrianVfs());
+
+    FileSystemManager fsManager = VFS.getManager();
+    FileObject fobj = fsManager.resolveFile("mtm:test-res/example_olap.xmi");
+    FileContent content = fobj.getContent();
+    byte[] schema = IOUtils.toByteArray(content.getInputStream());
+    content.close();
+
+    Assert.assertTrue(fobj.isAttached());
+    Assert.assertEquals(schema.length, content.getSize());
+    Assert.assertEquals(new File("test-res/example_olap.xmi").lastModified(), content.getLastModifiedTime());
+    Assert.assertEquals("text/xml", content.getContentInfo().getContentType());
+
+    fobj.refresh();
+    Assert.assertFalse(fobj.isAttached());
+  }
+
+  @Test
+  public void testFileNameWithSeparator() throws Exception {
+    File dir = createTempDir();
+    try {
+      File xmi = new File(dir, "Model #1.xmi");
+      FileUtils.copyFile(new File("test-res/example_olap.xmi"), xmi);
+      MetadataToMondrianVfs vfs = new MetadataToMondrianVfs();
+
+      MetadataToMondrianVfsFileObject fobj = (MetadataToMondrianVfsFileObject) vfs.findFile(null,
+          "mtm:" + xmi.getPath(), null);
+      Assert.assertEquals(xmi.getPath(), fobj.getFileRef());
+      Assert.assertNull(fobj.getModelId());
+
+      fobj = (MetadataToMondrianVfsFileObject) vfs.findFile(null, "mtm:" + xmi.getPath() + "#someModel", null);
+      Assert.assertEquals(xmi.getPath(), fobj.getFileRef());
+      Assert.assertEquals("someModel", fobj.getModelId());
+    } finally {
+      FileUtils.deleteDirectory(dir);
+    }
+  }
+
+  @Test
+  public void testSelectModel() throws Exception {
+    File dir = createTempDir();
+    try {
+      File xmi = new File(dir, "Model #2.xmi");
+      FileUtils.copyFile(new File("test-res/example_olap.xmi"), xmi);
+      String modelId = getFirstModelId(xmi);
+
+      ((DefaultFileSystemManager)VFS.getManager()).addProvider("mtm", new MetadataToMondrianVfs());
+      FileObject fobj = VFS.getManager().resolveFile("mtm:" + xmi.getPath() + "#" + modelId);
+      Assert.assertEquals(modelId, ((MetadataToMondrianVfsFileObject) fobj).getModelId());
+      InputStream in = fobj.getContent().getInputStream();
+      String schema = new String(IOUtils.toByteArray(in), MondrianSchemaCache.ENCODING);
+      in.close();
+      Assert.assertTrue(schema.indexOf("<Cube name=\"customer2 Table\">") >= 0);
+
+      // the selected model is cached apart from the default one
+      MondrianSchemaCache cache = MondrianSchemaCache.getInstance();
+      MondrianSchemaCache.CachedSchema selected = cache.getSchema(xmi, modelId);
+      Assert.assertSame(selected, cache.getSchema(xmi, modelId));
+      Assert.assertNotSame(selected, cache.getSchema(xmi));
+      cache.invalidate(xmi);
+    } finally {
+      FileUtils.deleteDirectory(dir);
+    }
+  }
+
+  private String getFirstModelId(File xmi) throws Exception {
+    FileInputStream in = new FileInputStream(xmi);
+    try {
+      Domain domain = new XmiParser().parseXmi(in);
+      return domain.getLogicalModels().get(0).getId();
+    } finally {
+      in.close();
+    }
+  }
+
+  private File createTempDir() throws Exception {
+    File dir = File.createTempFile("mtm", "");
+    dir.delete();
+    dir.mkdirs();
+    return dir;
+  }
 }
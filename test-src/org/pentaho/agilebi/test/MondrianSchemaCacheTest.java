@@ -0,0 +1,172 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.agilebi.vfs.MondrianSchemaCache;
+
+@SuppressWarnings("nls")
+public class MondrianSchemaCacheTest {
+
+  private File xmi;
+
+  private MondrianSchemaCache cache;
+
+  @Before
+  public void setUp() throws Exception {
+    xmi = createXmi();
+    cache = new MondrianSchemaCache(MondrianSchemaCache.DEFAULT_MAX_ENTRIES);
+  }
+
+  @After
+  public void tearDown() {
+    xmi.delete();
+  }
+
+  @Test
+  public void testSchemaIsCached() throws Exception {
+    MondrianSchemaCache.CachedSchema first = cache.getSchema(xmi);
+    assertSame(first, cache.getSchema(xmi));
+
+    String schema = new String(IOUtils.toByteArray(cache.getSchemaStream(xmi)), MondrianSchemaCache.ENCODING);
+    assertTrue(schema.indexOf("<Cube name=\"customer2 Table\">") >= 0);
+    assertSame(first, cache.getSchema(xmi));
+  }
+
+  @Test
+  public void testChangedFileIsRegenerated() throws Exception {
+    MondrianSchemaCache.CachedSchema first = cache.getSchema(xmi);
+    xmi.setLastModified(xmi.lastModified() - 10000);
+    MondrianSchemaCache.CachedSchema second = cache.getSchema(xmi);
+    assertNotSame(first, second);
+    assertEquals(xmi.lastModified(), second.getLastModified());
+    assertSame(second, cache.getSchema(xmi));
+  }
+
+  @Test
+  public void testGrownFileIsRegenerated() throws Exception {
+    MondrianSchemaCache.CachedSchema first = cache.getSchema(xmi);
+    long lastModified = xmi.lastModified();
+    FileUtils.writeStringToFile(xmi, FileUtils.readFileToString(xmi, "UTF-8") + "\n", "UTF-8");
+    xmi.setLastModified(lastModified);
+    assertNotSame(first, cache.getSchema(xmi));
+  }
+
+  @Test
+  public void testLeastRecentlyUsedIsEvicted() throws Exception {
+    File other = createXmi();
+    try {
+      MondrianSchemaCache small = new MondrianSchemaCache(1);
+      MondrianSchemaCache.CachedSchema first = small.getSchema(xmi);
+      small.getSchema(other);
+      assertEquals(1, small.size());
+      assertNotSame(first, small.getSchema(xmi));
+    } finally {
+      other.delete();
+    }
+  }
+
+  @Test
+  public void testConcurrentMissesShareOneSchema() throws Exception {
+    final AtomicInteger generations = new AtomicInteger();
+    final CountDownLatch generating = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final MondrianSchemaCache blocking = new MondrianSchemaCache(MondrianSchemaCache.DEFAULT_MAX_ENTRIES) {
+      @Override
+      protected byte[] generateSchema(File xmiFile, String modelId) throws Exception {
+        generations.incrementAndGet();
+        generating.countDown();
+        release.await(5, TimeUnit.SECONDS);
+        return super.generateSchema(xmiFile, modelId);
+      }
+    };
+    SchemaLoader first = new SchemaLoader(blocking);
+    first.start();
+    assertTrue(generating.await(5, TimeUnit.SECONDS));
+    // the second miss arrives while the first one is still generating, and waits for it
+    SchemaLoader second = new SchemaLoader(blocking);
+    second.start();
+    long deadline = System.currentTimeMillis() + 5000;
+    while (second.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(Thread.State.WAITING, second.getState());
+
+    release.countDown();
+    first.join();
+    second.join();
+    assertNotNull(first.schema);
+    assertSame(first.schema, second.schema);
+    assertEquals(1, generations.get());
+    assertEquals(2, blocking.getMisses());
+  }
+
+  @Test
+  public void testInvalidate() throws Exception {
+    MondrianSchemaCache.CachedSchema first = cache.getSchema(xmi);
+    cache.invalidate(xmi);
+    assertEquals(0, cache.size());
+    assertNotSame(first, cache.getSchema(xmi));
+  }
+
+  @Test(expected = Exception.class)
+  public void testUnknownModel() throws Exception {
+    cache.getSchema(xmi, "noSuchModel");
+  }
+
+  private File createXmi() throws Exception {
+    File file = File.createTempFile("schema-cache", ".xmi");
+    FileUtils.copyFile(new File("test-res/example_olap.xmi"), file);
+    return file;
+  }
+
+  private class SchemaLoader extends Thread {
+
+    private final MondrianSchemaCache cache;
+
+    volatile MondrianSchemaCache.CachedSchema schema;
+
+    SchemaLoader(MondrianSchemaCache cache) {
+      this.cache = cache;
+    }
+
+    public void run() {
+      try {
+        schema = cache.getSchema(xmi);
+      } catch (Exception e) {
+        // the test fails on the missing schema
+      }
+    }
+  }
+
+}